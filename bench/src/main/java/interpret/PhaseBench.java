@@ -0,0 +1,72 @@
+package interpret;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import interpret.Edit.InterpreterException;
+
+// What loading a program costs, one phase at a time, for programs of
+// Scripts.mixed(size): splitting into tokens, building the syntax tree
+// (with the Optimizer and Resolver, as Program.parse does) and compiling
+// it to bytecode.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBench {
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int size;
+
+	private char[] src;
+	private Lexer tokens;
+	private Parser tree;
+
+	@Setup
+	public void setup() throws InterpreterException {
+		src = Scripts.mixed(size).toCharArray();
+		tokens = new Lexer(src, 0, src.length);
+		tree = parse();
+	}
+
+	// Chars lexed, reported next to lex as chars a second. The scripts are
+	// ASCII, so chars are bytes: divide by 1e6 for MB/s.
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Chars {
+		public long chars;
+	}
+
+	@Benchmark
+	public Lexer lex(Chars c) throws InterpreterException {
+		c.chars += src.length;
+		return new Lexer(src, 0, src.length);
+	}
+
+	@Benchmark
+	public Parser parse() throws InterpreterException {
+		Parser p = new Parser(tokens);
+		new Optimizer(p);
+		new Resolver(p);
+		return p;
+	}
+
+	@Benchmark
+	public Compiler compile() {
+		return new Compiler(tree);
+	}
+}
@@ -0,0 +1,105 @@
+package interpret;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import interpret.Edit.InterpreterException;
+
+// Whole runs of the Scripts programs on each engine, printing to a Sink.
+// The programs are loaded, parsed and compiled in setup, as a Program run
+// again would be, so only running is measured. n is the work each run
+// does (iterations, calls, pieces, lines), time per n should stay flat.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBench {
+
+	@Param({ "interp", "tree", "vm" })
+	public String engine;
+
+	@Param({ "1000", "100000" })
+	public int n;
+
+	private int eng;
+	private Program expression, forLoop, whileLoop, calls, recursion,
+			concat, print;
+
+	@Setup
+	public void setup() throws InterpreterException {
+		eng = EditDemo.toEngine(engine);
+		expression = load("expression", Scripts.expression(n));
+		forLoop = load("forLoop", Scripts.forLoop(n));
+		whileLoop = load("whileLoop", Scripts.whileLoop(n));
+		calls = load("calls", Scripts.calls(n));
+		recursion = load("recursion", Scripts.recursion(n));
+		concat = load("concat", Scripts.concat(n));
+		print = load("print", Scripts.print(n));
+	}
+
+	// Loaded and made ready for the engine
+	private Program load(String name, String src) throws InterpreterException {
+		Program p = Scripts.load(name, src);
+		if (eng == Edit.VM)
+			p.compile();
+		else if (eng == Edit.TREE)
+			p.parse();
+		return p;
+	}
+
+	private Output run(Program p) throws InterpreterException {
+		Output out = new Scripts.Sink();
+		Edit e = new Edit(p);
+		e.setOutput(out);
+		e.run(eng);
+		return out;
+	}
+
+	@Benchmark
+	public Output expression() throws InterpreterException {
+		return run(expression);
+	}
+
+	@Benchmark
+	public Output forLoop() throws InterpreterException {
+		return run(forLoop);
+	}
+
+	@Benchmark
+	public Output whileLoop() throws InterpreterException {
+		return run(whileLoop);
+	}
+
+	@Benchmark
+	public Output calls() throws InterpreterException {
+		return run(calls);
+	}
+
+	@Benchmark
+	public Output recursion() throws InterpreterException {
+		return run(recursion);
+	}
+
+	@Benchmark
+	public Output concat() throws InterpreterException {
+		return run(concat);
+	}
+
+	@Benchmark
+	public Output print() throws InterpreterException {
+		return run(print);
+	}
+}
@@ -0,0 +1,135 @@
+package interpret;
+
+import java.io.IOException;
+
+import interpret.Edit.InterpreterException;
+
+// Edit programs for the benchmarks, made to size: n is how many times the
+// work is done, so times should grow with n and the rate stay the same.
+class Scripts {
+
+	// A program with n functions and n statements using them, ifs, loops
+	// and strings, for lexing and parsing. Grows by about 300 chars a step.
+	static String mixed(int n) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# made by Scripts.mixed(").append(n).append(")\n");
+		for (int i = 0; i < n; i++) {
+			sb.append("function f").append(i).append("(a, b) do\n");
+			sb.append("\tif a > b and not (a == ").append(i)
+					.append(") then\n");
+			sb.append("\t\treturn a * ").append(i).append(" + b / 2.5\n");
+			sb.append("\telse\n");
+			sb.append("\t\tt = \"f").append(i).append(" \" + \"b\"\n");
+			sb.append("\t\treturn b - a\n");
+			sb.append("\tend\n");
+			sb.append("end\n\n");
+		}
+		for (int i = 0; i < n; i++) {
+			sb.append("x").append(i).append(" = f").append(i)
+					.append("(").append(i).append(", ").append(n - i)
+					.append(")\n");
+			sb.append("while x").append(i).append(" < 0 do\n");
+			sb.append("\tx").append(i).append(" = x").append(i)
+					.append(" + 1\n");
+			sb.append("end\n");
+		}
+		return sb.toString();
+	}
+
+	// A long expression worked out n times
+	static String expression(int n) {
+		return "s = 0\n"
+				+ "for i = 0, i < " + n + ", i + 1 do\n"
+				+ "\ts = s + (i * 3 + 7) % 11 - (i - 4) * (i + 4) / 8"
+				+ " + -i ^ 2 / (i + 1)\n"
+				+ "end\n"
+				+ "print s\n";
+	}
+
+	static String forLoop(int n) {
+		return "s = 0\n"
+				+ "for i = 0, i < " + n + ", i + 1 do\n"
+				+ "\ts = s + i\n"
+				+ "end\n"
+				+ "print s\n";
+	}
+
+	static String whileLoop(int n) {
+		return "s = 0\n"
+				+ "i = 0\n"
+				+ "while i < " + n + " do\n"
+				+ "\ts = s + i\n"
+				+ "\ti = i + 1\n"
+				+ "end\n"
+				+ "print s\n";
+	}
+
+	// n calls of a function that calls nothing
+	static String calls(int n) {
+		return "function add(a, b) do\n"
+				+ "\treturn a + b\n"
+				+ "end\n\n"
+				+ "s = 0\n"
+				+ "for i = 0, i < " + n + ", i + 1 do\n"
+				+ "\ts = add(s, i)\n"
+				+ "end\n"
+				+ "print s\n";
+	}
+
+	// fib(k) the plain recursive way, k the largest for at most n calls,
+	// so the depth stays small
+	static String recursion(int n) {
+		int k = 0;
+		while (fibCalls(k + 1) <= n)
+			k++;
+		return "function fib(n) do\n"
+				+ "\tif n < 2 then\n"
+				+ "\t\treturn n\n"
+				+ "\tend\n"
+				+ "\treturn fib(n - 1) + fib(n - 2)\n"
+				+ "end\n\n"
+				+ "print fib(" + k + ")\n";
+	}
+
+	// Calls made by fib(k), 2 fib(k + 1) - 1
+	private static long fibCalls(int k) {
+		long a = 0, b = 1;
+		for (int i = 0; i <= k; i++) {
+			long c = a + b;
+			a = b;
+			b = c;
+		}
+		return 2 * a - 1;
+	}
+
+	// A string made of n pieces
+	static String concat(int n) {
+		return "s = \"\"\n"
+				+ "for i = 0, i < " + n + ", i + 1 do\n"
+				+ "\ts = s + \"ab\"\n"
+				+ "end\n"
+				+ "print s\n";
+	}
+
+	// n print statements
+	static String print(int n) {
+		return "for i = 0, i < " + n + ", i + 1 do\n"
+				+ "\tprint \"line\", i; i / 4\n"
+				+ "end\n";
+	}
+
+	// The program, lexed
+	static Program load(String name, String src) throws InterpreterException {
+		char[] c = src.toCharArray();
+		return new Program(name, new Lexer(c, 0, c.length));
+	}
+
+	// Throws away what is printed, so only making the text is measured
+	static class Sink extends Output {
+		protected void write(char[] b, int n) throws IOException {
+		}
+
+		protected void done() throws IOException {
+		}
+	}
+}
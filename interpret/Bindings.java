@@ -0,0 +1,119 @@
+package interpret;
+
+import java.util.Arrays;
+
+// Variables of the char interpreter. Every name has a number (its constant
+// in the Lexer) and one slot holding the innermost value, so reading or
+// writing a variable is an array access. A block only costs something when
+// it sets a name: the value it hides goes on a trail and comes back when
+// the block ends. The names a set can reach are those of the top level
+// and of the blocks of the running call, as the Resolver gives the other
+// engines: a set of one of those changes it where it is, a set of any
+// other name goes to the innermost block, hiding the value of a caller
+// that had it. let always goes to the innermost block, as a call does
+// with its parameters.
+class Bindings {
+
+	private Object[] vals; // innermost value of each name
+	private int[] depth; // block of that value, -1 when the name is unset
+	private int top; // innermost block, 0 is the top level
+	private int base; // first block of the running call, 0 for none
+
+	// What each set in a block hid
+	private int[] trailId;
+	private Object[] trailVal;
+	private int[] trailDepth;
+	private int trailSize;
+
+	private int[] marks; // trail size when each block started
+	private int[] bases; // base of each block
+
+	public Bindings(int names) {
+		vals = new Object[names];
+		depth = new int[names];
+		Arrays.fill(depth, -1);
+
+		trailId = new int[64];
+		trailVal = new Object[64];
+		trailDepth = new int[64];
+		marks = new int[16];
+		bases = new int[16];
+	}
+
+	// Start a block
+	void push() {
+		if (++top == marks.length) {
+			marks = Arrays.copyOf(marks, top * 2);
+			bases = Arrays.copyOf(bases, top * 2);
+		}
+		marks[top] = trailSize;
+		bases[top] = base;
+	}
+
+	// Start the first block of a call, the caller's blocks are out of reach
+	void call() {
+		push();
+		base = bases[top] = top;
+	}
+
+	// End a block, every value it hid comes back
+	void pop() {
+		int mark = marks[top];
+		while (trailSize > mark) {
+			trailSize--;
+			int id = trailId[trailSize];
+			vals[id] = trailVal[trailSize];
+			depth[id] = trailDepth[trailSize];
+			trailVal[trailSize] = null;
+		}
+		base = bases[--top];
+	}
+
+	// Set a name where it is when it can be reached, else in the innermost
+	// block
+	void put(int id, Object o) {
+		int d = depth[id];
+		if (d == 0 || d >= base)
+			vals[id] = o;
+		else
+			let(id, o);
+	}
+
+	// Set a name in the innermost block, hiding any other value of it
+	void let(int id, Object o) {
+		if (depth[id] != top) {
+			if (trailSize == trailId.length) {
+				int n = trailSize * 2;
+				trailId = Arrays.copyOf(trailId, n);
+				trailVal = Arrays.copyOf(trailVal, n);
+				trailDepth = Arrays.copyOf(trailDepth, n);
+			}
+			trailId[trailSize] = id;
+			trailVal[trailSize] = vals[id];
+			trailDepth[trailSize] = depth[id];
+			trailSize++;
+			depth[id] = top;
+		}
+		vals[id] = o;
+	}
+
+	// Innermost value, null when there is none
+	Object get(int id) {
+		return vals[id];
+	}
+
+	// Block the innermost value of a name was set in, -1 when unset
+	int depth(int id) {
+		return depth[id];
+	}
+
+	// Innermost block
+	int top() {
+		return top;
+	}
+
+	// Set in any block
+	boolean has(int id) {
+		return id >= 0 && depth[id] >= 0;
+	}
+}
@@ -0,0 +1,224 @@
+package interpret;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import interpret.Edit.InterpreterException;
+
+// Keeps the Lexer tables of programs on disk, so loading a program that did
+// not change skips reading its text. A program's file is named by the
+// SHA-256 of its bytes and by VERSION, an edited program or a new
+// interpreter looks for a file that is not there and lexes again. The file
+// is memory mapped when read. Anything wrong with the cache only costs the
+// lexing: a bad file is lexed over, a file that can not be written is left
+// out.
+class Cache {
+
+	// Change it when the Lexer tables change
+	static final int VERSION = 3;
+
+	private static final int MAGIC = 0x45646974; // "Edit"
+
+	// Kinds of constant values
+	private static final int NONE = 0;
+	private static final int NUMBER = 1;
+	private static final int TRUE = 2;
+	private static final int FALSE = 3;
+	private static final int STRING = 4;
+	private static final int LONG = 5;
+
+	private Path dir;
+
+	public Cache(String d) {
+		dir = Paths.get(d);
+	}
+
+	// The tokens of a program's bytes, from the cache or lexed and saved
+	Lexer tokens(ByteBuffer bytes, String name) throws InterpreterException {
+		byte[] hash = hash(bytes);
+		Path file = dir.resolve(hex(hash) + "-" + VERSION + ".tok");
+
+		Lexer t = load(file, hash);
+		if (t != null)
+			return t;
+
+		CharBuffer src = Source.decode(bytes, name);
+		t = new Lexer(src.array(), src.position(), src.limit());
+		save(file, hash, t);
+		return t;
+	}
+
+	private Lexer load(Path file, byte[] hash) {
+		ByteBuffer b;
+		try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "r");
+				FileChannel ch = f.getChannel()) {
+			b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} catch (IOException exc) {
+			return null; // not cached yet
+		}
+
+		try {
+			if (b.getInt() != MAGIC || b.getInt() != VERSION)
+				return null;
+			byte[] h = new byte[hash.length];
+			b.get(h);
+			if (!MessageDigest.isEqual(h, hash))
+				return null;
+
+			Lexer t = new Lexer();
+			t.size = b.getInt();
+			t.type = ints(b, t.size);
+			t.code = ints(b, t.size);
+			t.cons = ints(b, t.size);
+			t.line = ints(b, t.size);
+			t.skip = ints(b, t.size);
+
+			t.consSize = b.getInt();
+			t.lower = ints(b, t.consSize);
+			t.text = new String[t.consSize];
+			t.key = new String[t.consSize];
+			t.value = new Object[t.consSize];
+			for (int k = 0; k < t.consSize; k++) {
+				t.text[k] = string(b);
+				t.key[k] = string(b);
+				switch (b.get()) {
+				case NUMBER:
+					t.value[k] = b.getDouble();
+					break;
+				case LONG:
+					t.value[k] = b.getLong();
+					break;
+				case TRUE:
+					t.value[k] = Boolean.TRUE;
+					break;
+				case FALSE:
+					t.value[k] = Boolean.FALSE;
+					break;
+				case STRING:
+					t.value[k] = t.text[k];
+					break;
+				}
+			}
+			return t;
+		} catch (BufferUnderflowException | IllegalArgumentException exc) {
+			return null; // cut short, lexed over
+		}
+	}
+
+	private void save(Path file, byte[] hash, Lexer t) {
+		Path tmp = null;
+		try {
+			Files.createDirectories(dir);
+			tmp = Files.createTempFile(dir, "edit", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(hash);
+
+				out.writeInt(t.size);
+				ints(out, t.type, t.size);
+				ints(out, t.code, t.size);
+				ints(out, t.cons, t.size);
+				ints(out, t.line, t.size);
+				ints(out, t.skip, t.size);
+
+				out.writeInt(t.consSize);
+				ints(out, t.lower, t.consSize);
+				for (int k = 0; k < t.consSize; k++) {
+					string(out, t.text[k]);
+					string(out, t.key[k]);
+					Object v = t.value[k];
+					if (v instanceof Double) {
+						out.writeByte(NUMBER);
+						out.writeDouble((double) v);
+					} else if (v instanceof Long) {
+						out.writeByte(LONG);
+						out.writeLong((long) v);
+					} else if (v instanceof Boolean)
+						out.writeByte((boolean) v ? TRUE : FALSE);
+					else
+						out.writeByte(v == null ? NONE : STRING);
+				}
+			}
+
+			// Other runs see the whole file or none
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException exc) {
+			try {
+				if (tmp != null)
+					Files.deleteIfExists(tmp);
+			} catch (IOException e) {
+				// nothing else to do
+			}
+		}
+	}
+
+	private static int[] ints(ByteBuffer b, int n) {
+		check(b, 4L * n);
+		int[] a = new int[n];
+		b.asIntBuffer().get(a);
+		b.position(b.position() + 4 * n);
+		return a;
+	}
+
+	private static void ints(DataOutputStream out, int[] a, int n)
+			throws IOException {
+		for (int i = 0; i < n; i++)
+			out.writeInt(a[i]);
+	}
+
+	private static String string(ByteBuffer b) {
+		int n = b.getInt();
+		check(b, n);
+		byte[] s = new byte[n];
+		b.get(s);
+		return new String(s, StandardCharsets.UTF_8);
+	}
+
+	// A size read from a bad file could be anything
+	private static void check(ByteBuffer b, long n) {
+		if (n < 0 || n > b.remaining())
+			throw new BufferUnderflowException();
+	}
+
+	private static void string(DataOutputStream out, String s)
+			throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static byte[] hash(ByteBuffer bytes) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(bytes.duplicate());
+			return md.digest();
+		} catch (NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc); // every JVM has SHA-256
+		}
+	}
+
+	private static String hex(byte[] b) {
+		StringBuilder s = new StringBuilder();
+		for (byte x : b)
+			s.append(Character.forDigit((x >> 4) & 15, 16))
+					.append(Character.forDigit(x & 15, 16));
+		return s.toString();
+	}
+}
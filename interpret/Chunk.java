@@ -0,0 +1,77 @@
+package interpret;
+
+// Bytecode of one function (or of the top level). Operands follow their
+// opcode in the same int array; jump offsets count from the next
+// instruction. Locals live in numbered slots, parameters first.
+class Chunk {
+
+	// Opcodes            operands          stack
+	static final int CONST = 0; // k        -> consts[k]
+	static final int LOAD = 1; // slot      -> local
+	static final int STORE = 2; // slot     value ->
+	static final int GLOAD = 3; // slot     -> top level variable
+	static final int GSTORE = 4; // slot    value ->
+	static final int POP = 5; //            value ->
+
+	static final int ADD = 6; //            l r -> l + r
+	static final int SUB = 7;
+	static final int MUL = 8;
+	static final int DIV = 9;
+	static final int MOD = 10;
+	static final int POW = 11;
+	static final int NEG = 12; //           v -> -v
+	static final int NOT = 13; //           v -> not v
+	static final int REL = 14; // op        l r -> l op r (<, <=, ==, ...)
+	static final int LOGIC = 15; // op      l r -> l op r (and, or, ...)
+
+	static final int JUMP = 16; // offset
+	static final int JFALSE = 17; // offset cond ->
+	static final int LOOP = 18; // offset   jump back, counted for the JIT
+
+	static final int CALL = 19; // f argc   args -> result
+	static final int RET = 20; //           value -> (to the caller)
+	static final int RETNONE = 21; //       -> (null to the caller)
+
+	static final int PRINT = 22; // sep     value -> (prints it and sep)
+	static final int PRINTLN = 23; //       ->
+	static final int INPUT = 24; // k       -> typed value (k prompt or -1)
+	static final int ERROR = 25; // error   throws the error
+	static final int HALT = 26;
+	static final int TAILCALL = 27; // f argc  args -> (replaces the frame),
+	//                                 always followed by RET
+
+	static final String[] names = { "const", "load", "store", "gload",
+			"gstore", "pop", "add", "sub", "mul", "div", "mod", "pow", "neg",
+			"not", "rel", "logic", "jump", "jfalse", "loop", "call", "ret",
+			"retnone", "print", "println", "input", "error", "halt",
+			"tailcall" };
+
+	// Number of operands of each opcode
+	static final int[] operands = { 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0,
+			0, 1, 1, 1, 1, 1, 2, 0, 0, 1, 0, 1, 1, 0, 2 };
+
+	String name; // function name, "main" for the top level
+	int[] code;
+	int[] lines; // source line of each code word
+	int size;
+
+	int nParams;
+	int nLocals; // slots used, parameters included
+	int maxStack; // deepest the operand stack gets
+	boolean pure; // results are kept, see Memo
+
+	// Kept by the VM for the JIT. A Program's chunks are shared by all its
+	// runs: the counts are only a hint and may lose updates between
+	// threads, the compiled code is set once and seen by every run.
+	int calls;
+	int loops; // backward jumps taken
+	volatile Jit.Code jit; // compiled version, null until promoted
+	volatile boolean noJit; // the JIT can not translate it
+	int promoted; // order it was compiled in, from 1
+
+	Chunk(String n) {
+		name = n;
+		code = new int[64];
+		lines = new int[64];
+	}
+}
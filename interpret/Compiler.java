@@ -0,0 +1,316 @@
+package interpret;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Turns the syntax tree into bytecode for the VM. Variables already have
+// their slots from the Resolver: LOAD and STORE for the running function,
+// GLOAD and GSTORE for a top level slot used from a function.
+class Compiler {
+
+	Chunk main;
+	Chunk[] functs; // by number, see functIdx
+	Object[] consts; // constant pool shared by all chunks
+
+	private HashMap<String, Integer> functIdx; // lower case name to number
+	private Node.Function[] functNodes;
+
+	private ArrayList<Object> constList;
+	private HashMap<Object, Integer> constIdx;
+
+	private boolean inFunction;
+
+	private Chunk c; // chunk being written
+	private int depth; // operand stack depth at this point
+
+	public Compiler(Parser p) {
+		constList = new ArrayList<Object>();
+		constIdx = new HashMap<Object, Integer>();
+		functIdx = new HashMap<String, Integer>();
+
+		// Number the functions first so calls can use the numbers
+		functNodes = p.functs.values().toArray(new Node.Function[0]);
+		functs = new Chunk[functNodes.length];
+		for (int i = 0; i < functNodes.length; i++)
+			functIdx.put(functNodes[i].name.toLowerCase(), i);
+
+		inFunction = true;
+		for (int i = 0; i < functNodes.length; i++)
+			functs[i] = function(functNodes[i]);
+
+		inFunction = false;
+		main = new Chunk("main");
+		main.nLocals = p.mainLocals;
+		c = main;
+		depth = 0;
+		block(p.main);
+		emit(Chunk.HALT, 0, 0);
+
+		consts = constList.toArray();
+	}
+
+	private Chunk function(Node.Function f) {
+		c = new Chunk(f.name);
+		c.nParams = f.params.length;
+		c.pure = f.pure;
+		c.nLocals = f.nLocals;
+		depth = 0;
+
+		block(f.body);
+		emit(Chunk.RETNONE, 0, f.line);
+		return c;
+	}
+
+	//
+	//
+	//
+	// ***************************STATEMENTS*******************************
+	//
+	//
+	//
+
+	private void block(Node.Block b) {
+		for (Node n : b.stats)
+			statement(n);
+	}
+
+	private void statement(Node n) {
+		switch (n.kind) {
+		case Node.PRINT:
+			Node.Print p = (Node.Print) n;
+			for (int i = 0; i < p.exps.length; i++) {
+				expression(p.exps[i]);
+				emit(Chunk.PRINT, p.seps[i], -1, p.line);
+			}
+			emit(Chunk.PRINTLN, 0, p.line);
+			break;
+		case Node.INPUT:
+			Node.Input in = (Node.Input) n;
+			emit(Chunk.INPUT, in.prompt == null ? -1 : constant(in.prompt), 1,
+					in.line);
+			store(in.slot, in.global, in.line);
+			break;
+		case Node.IF:
+			ifStat((Node.If) n);
+			break;
+		case Node.FOR:
+			Node.For f = (Node.For) n;
+			expression(f.init);
+			store(f.slot, f.global, f.line);
+
+			int top = c.size;
+			expression(f.cond);
+			int exit = jump(Chunk.JFALSE, f.line);
+			block(f.body);
+			expression(f.step);
+			store(f.slot, f.global, f.line);
+			loop(top, f.line);
+			patch(exit);
+			break;
+		case Node.WHILE:
+			Node.While w = (Node.While) n;
+			top = c.size;
+			expression(w.cond);
+			exit = jump(Chunk.JFALSE, w.line);
+			block(w.body);
+			loop(top, w.line);
+			patch(exit);
+			break;
+		case Node.RETURN:
+			Node.Return r = (Node.Return) n;
+			if (!inFunction)
+				emit(Chunk.ERROR, Edit.SYNTAX, 0, r.line);
+			else if (r.exp == null)
+				emit(Chunk.RETNONE, 0, r.line);
+			else {
+				if (r.exp.kind == Node.CALL) // return f(...) reuses the frame
+					call((Node.Call) r.exp, Chunk.TAILCALL);
+				else
+					expression(r.exp);
+				emit(Chunk.RET, -1, r.line);
+			}
+			break;
+		case Node.ASSIGN:
+			Node.Assign a = (Node.Assign) n;
+			expression(a.exp);
+			store(a.slot, a.global, a.line);
+			break;
+		case Node.CALL:
+			expression(n);
+			emit(Chunk.POP, -1, n.line);
+			break;
+		}
+	}
+
+	private void ifStat(Node.If i) {
+		int[] ends = new int[i.conds.length];
+
+		for (int k = 0; k < i.conds.length; k++) {
+			expression(i.conds[k]);
+			int next = jump(Chunk.JFALSE, i.conds[k].line);
+			block(i.blocks[k]);
+			ends[k] = jump(Chunk.JUMP, i.line);
+			patch(next);
+		}
+		if (i.elseBlock != null)
+			block(i.elseBlock);
+
+		for (int end : ends)
+			patch(end);
+	}
+
+	//
+	//
+	//
+	// ***************************EXPRESSIONS*******************************
+	//
+	//
+	//
+
+	private void expression(Node n) {
+		switch (n.kind) {
+		case Node.CONST:
+			emit(Chunk.CONST, constant(((Node.Const) n).value), 1, n.line);
+			break;
+		case Node.VAR:
+			Node.Var v = (Node.Var) n;
+			emit(v.global ? Chunk.GLOAD : Chunk.LOAD, v.slot, 1, v.line);
+			break;
+		case Node.UNARY:
+			Node.Unary u = (Node.Unary) n;
+			expression(u.exp);
+			emit(u.op == '-' ? Chunk.NEG : Chunk.NOT, 0, u.line);
+			break;
+		case Node.BINARY:
+			Node.Binary b = (Node.Binary) n;
+			expression(b.left);
+			expression(b.right);
+			binary(b.op, b.line);
+			break;
+		case Node.CALL:
+			call((Node.Call) n, Chunk.CALL);
+			break;
+		}
+	}
+
+	private void binary(int op, int line) {
+		switch (op) {
+		case '+':
+			emit(Chunk.ADD, -1, line);
+			break;
+		case '-':
+			emit(Chunk.SUB, -1, line);
+			break;
+		case '*':
+			emit(Chunk.MUL, -1, line);
+			break;
+		case '/':
+			emit(Chunk.DIV, -1, line);
+			break;
+		case '%':
+			emit(Chunk.MOD, -1, line);
+			break;
+		case '^':
+			emit(Chunk.POW, -1, line);
+			break;
+		default:
+			if (op >= Edit.BOOL_OP)
+				emit(Chunk.LOGIC, op, -1, line);
+			else
+				emit(Chunk.REL, op, -1, line);
+		}
+	}
+
+	// op is CALL or TAILCALL
+	private void call(Node.Call n, int op) {
+		Integer f = functIdx.get(n.key);
+
+		for (Node a : n.args)
+			expression(a);
+
+		// Known to fail, but only if it is run
+		if (f == null) {
+			emit(Chunk.ERROR, Edit.UNKFUNCTION, 1 - n.args.length, n.line);
+			return;
+		}
+		if (n.args.length > functNodes[f].params.length) {
+			emit(Chunk.ERROR, Edit.TOOMANYPARAMS, 1 - n.args.length, n.line);
+			return;
+		}
+
+		if (functNodes[f].pure) // its result is kept when it returns
+			op = Chunk.CALL;
+		emit(op, f, n.args.length, 1 - n.args.length, n.line);
+	}
+
+	//
+	//
+	//
+	// **************** Background Methods***********************************
+	//
+	//
+	//
+
+	private void store(int slot, boolean global, int line) {
+		emit(global ? Chunk.GSTORE : Chunk.STORE, slot, -1, line);
+	}
+
+	private int constant(Object o) {
+		Integer k = constIdx.get(o);
+		if (k == null) {
+			k = constList.size();
+			constList.add(o);
+			constIdx.put(o, k);
+		}
+		return k;
+	}
+
+	// Jump with the offset filled in later by patch
+	private int jump(int op, int line) {
+		emit(op, 0, op == Chunk.JFALSE ? -1 : 0, line);
+		return c.size - 1;
+	}
+
+	private void patch(int at) {
+		c.code[at] = c.size - (at + 1);
+	}
+
+	private void loop(int top, int line) {
+		emit(Chunk.LOOP, top - (c.size + 2), 0, line);
+	}
+
+	private void emit(int op, int effect, int line) {
+		put(op, line);
+		stack(effect);
+	}
+
+	private void emit(int op, int a, int effect, int line) {
+		put(op, line);
+		put(a, line);
+		stack(effect);
+	}
+
+	private void emit(int op, int a, int b, int effect, int line) {
+		put(op, line);
+		put(a, line);
+		put(b, line);
+		stack(effect);
+	}
+
+	private void stack(int effect) {
+		depth += effect;
+		if (depth > c.maxStack)
+			c.maxStack = depth;
+	}
+
+	private void put(int word, int line) {
+		if (c.size == c.code.length) {
+			c.code = Arrays.copyOf(c.code, c.size * 2);
+			c.lines = Arrays.copyOf(c.lines, c.size * 2);
+		}
+		c.code[c.size] = word;
+		c.lines[c.size] = line;
+		c.size++;
+	}
+}
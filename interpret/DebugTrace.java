@@ -0,0 +1,54 @@
+package interpret;
+
+// The Trace run(true, ...) uses: prints every event, indented by depth.
+// It writes to the program's Output so events and prints stay in order.
+class DebugTrace implements Trace {
+
+	private Output out;
+
+	public DebugTrace(Output o) {
+		out = o;
+	}
+
+	public void token(String item, int type, int line, int depth) {
+		print(depth, "Item: " + item + "\tType: " + type + "\tLine: " + line);
+	}
+
+	public void statement(int command, int line, int depth) {
+		String s = command < 0 ? "call"
+				: command == 0 ? "assign" : Edit.commTable[command];
+		print(depth, "> " + s + ", line " + line);
+	}
+
+	public void call(String name, int line, int depth) {
+		print(depth, "> call " + name + ", line " + line);
+	}
+
+	public void ret(String name, Object value, int depth) {
+		print(depth, "> " + name + " returned " + value);
+	}
+
+	public void push(int depth) {
+		print(depth, "> new block");
+	}
+
+	public void pop(int depth) {
+		print(depth, "> end block");
+	}
+
+	public void write(String name, Object value, int depth) {
+		print(depth, "> " + name + " = " + value);
+	}
+
+	public void message(String s, int depth) {
+		print(depth, "> " + s);
+	}
+
+	private void print(int depth, String s) {
+		for (int i = 0; i < depth; i++)
+			out.print('\t');
+		out.print(s);
+		out.println();
+		out.println();
+	}
+}
@@ -1,111 +1,151 @@
 package interpret;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 import java.util.TreeMap;
 
 class Edit {
 
-	final int MAX_PROG_SIZE = 100000;
-
 	// Item types
-	final int NONE = 0; // Don't know
-	final int DELIMITER = 1; // Any weird symbols (not the rest) incl bool ops
-	final int VARIABLE = 2; // If has been initiated
-	final int COMMAND = 3; // If is in next list
-	final int EOL = 4; // End of the line
-	final int EOP = 5; // End of the program
+	static final int NONE = 0; // Don't know
+	static final int DELIMITER = 1; // Any weird symbols (not the rest) incl bool ops
+	static final int VARIABLE = 2; // If has been initiated
+	static final int COMMAND = 3; // If is in next list
+	static final int EOL = 4; // End of the line
+	static final int EOP = 5; // End of the program
 
 	// Evaluable item types
-	final int STRING = 6; // If quoted
-	final int NUMBER = 7; // Well...
-	final int BOOLEAN = 8; // Keeps as string
-	final int FUNCT = 9; // Only for function
+	static final int STRING = 6; // If quoted
+	static final int NUMBER = 7; // Well...
+	static final int BOOLEAN = 8; // Keeps as string
+	static final int FUNCT = 9; // Only for function
 
 	// Internal representation of Edit commands
-	final int UNKNCOM = 0; // Don't Know
-	final int PRINT = 1; // Duh
-	final int INPUT = 2; // Ask for...
-	final int RETURN = 3; // End function prematurely or return val
-	final int THEN = 4; // Expected after If
-	final int END = 5; // Ends some commands
-	final int DO = 6; // Expected after while
-	final int ELSE = 7; // the else to the if
+	static final int UNKNCOM = 0; // Don't Know
+	static final int PRINT = 1; // Duh
+	static final int INPUT = 2; // Ask for...
+	static final int RETURN = 3; // End function prematurely or return val
+	static final int THEN = 4; // Expected after If
+	static final int END = 5; // Ends some commands
+	static final int DO = 6; // Expected after while
+	static final int ELSE = 7; // the else to the if
 
 	// End is expected after these
-	final int IF = 8; // Start If
-	final int FOR = 9; // Start For
-	final int WHILE = 10; // Start While
-	final int FUNCTION = 11; // Creates new Functions
+	static final int IF = 8; // Start If
+	static final int FOR = 9; // Start For
+	static final int WHILE = 10; // Start While
+	static final int FUNCTION = 11; // Creates new Functions
+	static final int PURE = 12; // pure function, results are kept
 
 	// Errors
-	final int SYNTAX = 0; // Unexpected stuff
-	final int UNBALPARENS = 1; // (... or ...)
-	final int DIVBYZERO = 2; // 1/0
-	final int EQUALEXPECTED = 3; // For variable assignment and if statements
-	final int NOTAVAR = 4; // for vars that have no value: assignments,loops
-	final int NOTABOOL = 5; // not a boolean
-	final int NOTANUMB = 6; // not a number
-	final int NOTASTR = 7; // not a string
-	final int DUPFUNCTION = 8; // two functions with same name
-	final int ENDEXPECTED = 9; // Reaches end of program without end
-	final int THENEXPECTED = 10; // no then after if
-	final int MISSQUOTE = 11; // strings missing a quote
-	final int DOEXPECTED = 12;
-	final int UNKFUNCTION = 13; // Unknown function
-	final int INVALIDEXP = 14; // Invalid Expression
-	final int UNEXPITEM = 15;
-	final int TOOMANYPARAMS = 16;
-
-	final int FILENOTFOUND = 17; // can't find file
-	final int INPUTIOERROR = 18; // Input that fails
-	final int EXPERR = 19; // for if, while and for
-	final int FILEIOERROR = 20; // can't load file
-
-	final int UNKNOWN = 21;
+	static final int SYNTAX = 0; // Unexpected stuff
+	static final int UNBALPARENS = 1; // (... or ...)
+	static final int DIVBYZERO = 2; // 1/0
+	static final int EQUALEXPECTED = 3; // For variable assignment and if statements
+	static final int NOTAVAR = 4; // for vars that have no value: assignments,loops
+	static final int NOTABOOL = 5; // not a boolean
+	static final int NOTANUMB = 6; // not a number
+	static final int NOTASTR = 7; // not a string
+	static final int DUPFUNCTION = 8; // two functions with same name
+	static final int ENDEXPECTED = 9; // Reaches end of program without end
+	static final int THENEXPECTED = 10; // no then after if
+	static final int MISSQUOTE = 11; // strings missing a quote
+	static final int DOEXPECTED = 12;
+	static final int UNKFUNCTION = 13; // Unknown function
+	static final int INVALIDEXP = 14; // Invalid Expression
+	static final int UNEXPITEM = 15;
+	static final int TOOMANYPARAMS = 16;
+
+	static final int FILENOTFOUND = 17; // can't find file
+	static final int INPUTIOERROR = 18; // Input that fails
+	static final int EXPERR = 19; // for if, while and for
+	static final int FILEIOERROR = 20; // can't load file
+	static final int OUTPUTIOERROR = 21; // print that fails
+	static final int STOPPED = 22; // thread interrupted, see Runner
+	static final int TOODEEP = 23; // more calls running than maxDepth
+	static final int IMPURE = 24; // print, input or outer names in a pure function
+
+	static final int UNKNOWN = 25;
+
+	static final int MAX_DEPTH = 100000; // calls running at once, default
+
+	// Engines for run
+	static final int INTERP = 0; // reads the tokens as it goes
+	static final int TREE = 1; // walks a syntax tree parsed once
+	static final int VM = 2; // runs bytecode compiled from the tree
+	static final String[] engines = { "interp", "tree", "vm" };
 
 	// Important stuff
-	private Stack<Command> commands; // All loops and commands
+	// All loops and commands, volatile for a Sampler
+	private volatile Stack<Command> commands;
 
-	private Stack<TreeMap<String, Object>> vars; // holds all vars
+	private Bindings vars; // holds all vars
 	private TreeMap<String, Function> functs; // holds all functions
-
-	private char[] prog; // holds all the program
-	private int progIdx; // current program index
+	private Function[] sites; // function each token names, see function()
+	private int[] siteGen;
+	private int gen; // bumped when a function is defined
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private Program program; // shared with other Edits running it
+	private Lexer tokens; // the program's tokens
+	private VM vm; // last VM run
+	private TreeWalker tree; // last tree run
+	private int jitMode = Jit.TIERED;
+	private int maxDepth = MAX_DEPTH;
+	private int calls; // functions the char interpreter is running
+	private Function tail; // of a return f(...), run by execFunct
+	private Object[] tailArgs;
+	private String tailName;
+	private int tailLine;
+	private long statements, called, inputs; // for Metrics, this run
+	private int pureBlock = -1; // block of the running pure call, or -1
+	private int memoSize = Memo.SIZE;
+	private Memo.Table memos; // of the last run
+	private Output out = Output.stdout(); // where print writes
+	private Input in = Input.stdin(); // where input reads
+	private boolean doubles; // print whole numbers as 3.0
+	private int progIdx; // index of the next token
 	private int progLine; // current program line
+	private volatile int sampleLine; // progLine for a Sampler to read
 
 	private String item; // the current word/char/number
+	private Object itemVal; // value of a literal item
+	private int itemId; // constant of the item, names are set by it
+	private double num; // number of the value an evalExp gave
 	private int itemType; // from the types
 	private int commType; // from the comms
+	private int op; // operator code of a DELIMITER item
 
-	// Codes for operators such as <=
-	final char LE = 0; // <=
-	final char GE = 1; // >=
-	final char EQ = 4; // ==
-
-	final char rOps[] = { LE, GE, '<', '>', EQ };
-	String relops = new String(rOps);
+	// Codes for operators such as <=, single chars use their own code
+	static final char LE = 0; // <=
+	static final char GE = 1; // >=
+	static final char EQ = 4; // ==
+	static final int NOOP = -1; // item is not an operator
 
 	// Codes for boolean operators
-	final char AND = 0;
-	final char OR = 1;
-	final char NOT = 2;
-	final char XOR = 3;
-	final char XAND = 4;
+	static final char AND = 0;
+	static final char OR = 1;
+	static final char NOT = 2;
+	static final char XOR = 3;
+	static final char XAND = 4;
+
+	static final int BOOL_OP = 256; // added to the codes above for items
 
-	final char bOpsId[] = { AND, OR, NOT, XOR, XAND };
-	final String bOps[] = { "and", "or", "not", "xor", "xand" };
+	static final char bOpsId[] = { AND, OR, NOT, XOR, XAND };
+	static final String bOps[] = { "and", "or", "not", "xor", "xand" };
 
-	String[] commTable = { "", "print", "input", "return", "then", "end", "do",
-			"else", "if", "for", "while", "function" };
+	static final String[] commTable = { "", "print", "input", "return",
+			"then", "end", "do", "else", "if", "for", "while", "function",
+			"pure" };
 
 	class Command {
 		int loc, comm = 0, line;
+		Events.Loop event; // of a loop when it is recorded, else null
+		long runs = 1; // times a loop's body ran
 
 		public String toString() {
 			return commTable[comm];
@@ -113,12 +153,12 @@ class Edit {
 	}
 
 	class ForLoop extends Command {
-		String vName;
+		int vId;
 		int expLoc, itLoc;
 
-		public ForLoop(String n, int exp, int it, int lo, int lin) {
+		public ForLoop(int n, int exp, int it, int lo, int lin) {
 			comm = FOR;
-			vName = n;
+			vId = n;
 			expLoc = exp;
 			itLoc = it;
 			loc = lo;
@@ -146,10 +186,12 @@ class Edit {
 	}
 
 	class Function extends Command {
-		int backLoc;
-		ArrayList<String> params;
+		int backLoc; // where this call goes back to, -1 for a definition
+		int[] params; // names as in Bindings, in order
+		Memo memo; // results of a pure function, else null
+		String name; // of the function a call runs, null for a definition
 
-		public Function(int l, int bLoc, ArrayList<String> pars) {
+		public Function(int l, int bLoc, int[] pars) {
 			comm = FUNCTION;
 			backLoc = bLoc;
 			loc = l;
@@ -170,109 +212,300 @@ class Edit {
 		}
 	}
 
-	boolean debug = true;
-	final boolean DEBUG_E = false;
-
-	private void debug(String s) {
-		if (debug) {
-			if (commands != null) {
-				for (int i = 0; i < commands.size(); i++)
-					System.out.print("\t");
-			}
-			System.out.println("> " + s);
-			System.out.println();
-		}
-	}
+	private Trace trace; // null when nothing listens
+	private boolean profiling;
+	private Profile profile; // of the last run, null when not profiled
+	private long sampleMicros; // 0 for no Sampler
+	private Sampler sampler; // of the last run, null when not sampled
 
-	private void debug(String[] strs) {
-		if (debug) {
-			String str = "";
-			if (commands != null) {
-				for (int i = 0; i < commands.size(); i++)
-					str += "\t";
-			}
-			for (String s : strs)
-				System.out.println(str + s);
-			System.out.println();
-		}
+	// Printed with or without a Trace
+	private static void status(String s) {
+		System.out.println("> " + s);
+		System.out.println();
 	}
 
 	// Constructor for Edit
 	public Edit(String progname) throws InterpreterException {
+		this(progname, null);
+	}
 
-		char tempprog[] = new char[MAX_PROG_SIZE];
-		int size;
-
-		// Returns correct size
-		size = loadProgram(tempprog, progname);
-
-		if (size != -1) {
-			prog = new char[size];
+	// Takes the tokens from a Cache in cacheDir when the program did not
+	// change since it was cached, null for no cache
+	public Edit(String progname, String cacheDir) throws InterpreterException {
+		this(load(progname, cacheDir));
+	}
 
-			System.arraycopy(tempprog, 0, prog, 0, size);
-		}
+	// A run of a loaded program. An Edit holds the state of its runs and is
+	// used by one thread, a Program can be shared by any number of Edits.
+	public Edit(Program p) {
+		program = p;
+		tokens = p.tokens;
 	}
 
-	// Load a program
-	public int loadProgram(char[] p, String progname)
+	private static Program load(String progname, String cacheDir)
 			throws InterpreterException {
-		debug("Loading program...");
-
-		int size = 0;
+		status("Loading program...");
+		return Program.load(progname, cacheDir);
+	}
 
-		try {
-			FileReader fr = new FileReader(progname);
+	// The loaded program, to run it again from other Edits
+	public Program program() {
+		return program;
+	}
 
-			BufferedReader br = new BufferedReader(fr);
+	// Execute the program
+	public void run(boolean d) throws InterpreterException {
+		run(d, INTERP);
+	}
 
-			size = br.read(p, 0, MAX_PROG_SIZE);
+	// Execute the program, printing every step when d is true
+	public void run(boolean d, int engine) throws InterpreterException {
+		status("Running program...");
+		setTrace(d ? new DebugTrace(out) : null);
+		run(engine);
+		if (profile != null)
+			status(profile.toString());
+	}
 
-			fr.close();
-		} catch (FileNotFoundException exc) {
-			handleErr(FILENOTFOUND);
-		} catch (IOException exc) {
-			handleErr(FILEIOERROR);
+	// Execute the program with one of the engines, what it printed is
+	// flushed at the end even when it fails. Interrupting the thread stops
+	// the run with STOPPED.
+	public void run(int engine) throws InterpreterException {
+		out.printDoubles(doubles);
+		Trace t = trace;
+		profile = profiling && engine == INTERP ? new Profile(t) : null;
+		if (profile != null)
+			trace = profile;
+		sampler = null; // started by execute once the run is set up
+		Events.Run ev = Events.run();
+		String error = null;
+		int code = -1;
+		long start = System.nanoTime();
+		long printed = out.printed();
+		Metrics.ALL.started();
+		try {
+			execute(engine);
+		} catch (StackOverflowError exc) {
+			// Before maxDepth, the engines but the VM nest on the Java stack
+			error = errStr[TOODEEP];
+			code = TOODEEP;
+			throw flush(new InterpreterException(TOODEEP, error));
+		} catch (InterpreterException exc) {
+			error = exc.toString();
+			code = exc.code;
+			throw flush(exc);
+		} catch (RuntimeException exc) {
+			// A bug of ours, still reported as an error of the run
+			InterpreterException e = unknown(exc);
+			error = e.toString();
+			code = UNKNOWN;
+			throw flush(e);
+		} finally {
+			count(engine, System.nanoTime() - start, out.printed() - printed,
+					code);
+			if (ev != null)
+				ev.done(program.name, engines[engine], error);
+			if (profile != null) {
+				profile.end();
+				trace = t;
+			}
+			if (sampler != null)
+				sampler.stop();
 		}
+		out.flush();
+	}
 
-		// If file ends with an EOF mark, back up
-		if (p[size - 1] == (char) 26)
-			size--;
-
-		return size;
+	// Flush what a failed run printed. The run's error is the one reported,
+	// a failing flush is only added to it as suppressed.
+	private InterpreterException flush(InterpreterException exc) {
+		try {
+			out.flush();
+		} catch (InterpreterException e) {
+			exc.addSuppressed(e);
+		}
+		return exc;
 	}
 
-	// Execute the program
-	public void run(boolean d) throws InterpreterException {
-		debug("Running program...");
+	// Add a run to Metrics.ALL, with what its engine counted
+	private void count(int engine, long time, long printed, int error) {
+		if (engine == TREE && tree != null)
+			Metrics.ALL.ended(time, tree.statements, tree.calls, tree.inputs,
+					printed, error);
+		else if (engine == VM && vm != null)
+			Metrics.ALL.ended(time, 0, vm.calls, vm.inputs, printed, error);
+		else
+			Metrics.ALL.ended(time, statements, called, inputs, printed,
+					error);
+	}
 
-		debug = d;
+	private void execute(int engine) throws InterpreterException {
+		memos = new Memo.Table(memoSize);
+		tree = null;
+		vm = null;
+		statements = called = inputs = 0;
+		if (engine == TREE) {
+			tree = new TreeWalker(program.parse(), maxDepth, memos, in, out);
+			tree.run();
+			return;
+		}
+		if (engine == VM) {
+			vm = new VM(program.compile(), jitMode, maxDepth, memos, in, out);
+			vm.run();
+			if (trace != null)
+				trace.message(vm.jitReport(), 0);
+			return;
+		}
 
 		// Initialize to run a new program
-		vars = new Stack<TreeMap<String, Object>>();
-		vars.push(new TreeMap<String, Object>());
+		vars = new Bindings(tokens.consSize);
 		functs = new TreeMap<String, Function>();
+		sites = new Function[tokens.size];
+		siteGen = new int[tokens.size];
+		gen = 1;
 
 		commands = new Stack<Command>();
+		calls = 0;
+		pureBlock = -1;
 
 		progIdx = 0;
-		progLine = 1;
+		progLine = sampleLine = 1;
+
+		if (sampleMicros > 0)
+			sampler = new Sampler(this, sampleMicros);
 
 		// Let's get this started(Runs code)
 		runCode();
 	}
 
+	// A command that is a statement for Metrics, as in the tree engine. The
+	// end or else of a block and a function definition are not.
+	private static boolean counted(int comm) {
+		return comm != END && comm != ELSE && comm != FUNCTION && comm != PURE;
+	}
+
+	// Listener for the char interpreter, null for none
+	public void setTrace(Trace t) {
+		trace = t;
+	}
+
+	// Count the runs of each line and function and the time spent in
+	// them, for profileReport(). Only the char interpreter is profiled,
+	// with nothing to count it costs nothing.
+	public void setProfile(boolean p) {
+		profiling = p;
+	}
+
+	// The lines and functions of the last run that took longest
+	public String profileReport() {
+		return profile == null ? "" : profile.toString();
+	}
+
+	// Sample the Edit calls of the char interpreter every micros us while
+	// it runs, 0 for never, see writeSamples
+	public void setSampling(long micros) {
+		sampleMicros = micros;
+	}
+
+	// The stacks the last run was seen in, as collapsed stacks for a flame
+	// graph, nothing when it was not sampled
+	public void writeSamples(Writer w) throws IOException {
+		if (sampler != null)
+			sampler.write(w);
+	}
+
+	// The calls running, for a Sampler on another thread: "main:line" and
+	// then "name:line" for each call, where line is the line the call is
+	// at. commands and sampleLine are volatile, a call changes both while
+	// holding the Stack's lock and a frame's name and line are set before
+	// it is pushed. A sample may be a statement late.
+	String stack() {
+		Stack<Command> c = commands;
+		if (c == null)
+			return null;
+		Object[] frames;
+		int line;
+		synchronized (c) {
+			frames = c.toArray();
+			line = sampleLine;
+		}
+		StringBuilder sb = new StringBuilder("main");
+		for (Object o : frames) {
+			if (o instanceof Function && ((Function) o).name != null) {
+				Function f = (Function) o;
+				sb.append(':').append(f.line).append(';').append(f.name);
+			}
+		}
+		return sb.append(':').append(line).toString();
+	}
+
+	// Where print writes, standard output by default
+	public void setOutput(Output o) {
+		out = o;
+	}
+
+	// Print whole numbers as doubles, 3 as 3.0, the way all numbers were
+	// printed before there were whole ones
+	public void setPrintDoubles(boolean d) {
+		doubles = d;
+	}
+
+	// Where input reads, standard input by default. Runs go on where the
+	// last one stopped reading.
+	public void setInput(Input i) {
+		in = i;
+	}
+
+	// Most calls running at once, deeper ones fail with TOODEEP. Only the
+	// VM keeps its calls off the Java stack, the other engines may run out
+	// of it first, which also fails with TOODEEP.
+	public void setMaxDepth(int d) {
+		maxDepth = d;
+	}
+
+	// Jit.OFF, TIERED or EAGER for the VM engine
+	public void setJit(int mode) {
+		jitMode = mode;
+	}
+
+	// Results kept for each pure function, the least recently used go
+	// first once there are more
+	public void setMemoSize(int n) {
+		memoSize = n;
+	}
+
+	// Hits and misses of the pure functions in the last run
+	public String memoStats() {
+		return memos == null ? "" : memos.toString();
+	}
+
+	// The program as the tree and VM engines run it, after the Optimizer
+	public String optimized() throws InterpreterException {
+		return Printer.print(program.parse());
+	}
+
+	// Functions the JIT promoted in the last run, when it was a VM run
+	public String jitStats() {
+		return vm == null ? "" : vm.jitReport();
+	}
+
 	// Let's go! (Runs code)
 	private Object runCode() throws InterpreterException {
-		debug("Starting program...");
-
 		// Runs until
 		while (nextItem()) {
+			if (itemType == VARIABLE || itemType == COMMAND
+					|| itemType == FUNCT) {
+				if (itemType != COMMAND || counted(commType))
+					statements++;
+				if (sampler != null)
+					sampleLine = progLine;
+				if (trace != null)
+					trace.statement(itemType == FUNCT ? -1 : commType,
+							progLine, commands.size());
+			}
 
 			// Not exisiting funct or var, so new var
 			switch (itemType) {
 			case VARIABLE:
-				if (item.equals("getNum"))
-					System.out.println("dafuq");
 				assignVar();
 				break;
 			case FUNCT:
@@ -302,20 +535,25 @@ class Edit {
 					execWhile();
 					break;
 				case RETURN:
-					debug("Returning");
 					nextItem();
+					if (itemType == FUNCT && tailCall())
+						return null; // execFunct runs it in place
 					Object o = evaluate();
 					endComm(true);
 					return o;
 				case FUNCTION:
-					newFunction();
+					newFunction(false);
+					break;
+				case PURE:
+					nextItem();
+					if (commType != FUNCTION)
+						handleErr(SYNTAX);
+					newFunction(true);
 					break;
 				case ELSE:
 					execElse();
 					break;
 				}
-
-				debug("Done with command");
 				break;
 			}
 
@@ -329,20 +567,17 @@ class Edit {
 
 	// simple print command
 	private void print() throws InterpreterException {
-		debug("Print");
-
-		String lastDelim = "";
+		if (pureBlock >= 0)
+			handleErr(IMPURE);
 
 		while (nextItem() && itemType != EOL && itemType != EOP) {
 
-			System.out.print(evaluate());
-
-			lastDelim = item;
+			out.print(evaluate());
 
-			if (lastDelim.equals(",")) // ',' means one more item
-				System.out.print(" ");
-			else if (lastDelim.equals(";"))
-				System.out.print("\t");
+			if (op == ',') // ',' means one more item
+				out.print(' ');
+			else if (op == ';')
+				out.print('\t');
 			else if (itemType != EOL && itemType != EOP)
 				// also not end of line?
 				handleErr(SYNTAX);
@@ -350,29 +585,28 @@ class Edit {
 				break;
 		}
 
-		System.out.println();
+		out.println();
 	}
 
 	// Input stringsn that start with number = bad
 	private void input() throws InterpreterException {
-		debug("Get Input");
 		String str = "";
-
-		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+		if (pureBlock >= 0)
+			handleErr(IMPURE);
 
 		// See if next has question to output
 		nextItem();
 		if (itemType == STRING) {
-			System.out.print(item);
+			out.print(item);
 			nextItem(); // discard the comma
-			if (!item.equals(",")) {
+			if (op != ',') {
 				handleErr(SYNTAX);
 				return;
 			}
 			nextItem(); // get input var
 		} else {
 			// already has input var
-			System.out.print("? "); // default question
+			out.print("? "); // default question
 		}
 
 		// check for string, makes var
@@ -381,10 +615,19 @@ class Edit {
 			return;
 		}
 
+		out.flush(); // the question shows before waiting
 		try {
-			str = br.readLine();
+			Events.Input ev = Events.input();
+			str = in.readLine();
+			if (ev != null)
+				ev.done(progLine);
+			if (str == null) { // no more input
+				handleErr(INPUTIOERROR);
+				return;
+			}
+			inputs++;
 
-			vars.peek().put(item, str);
+			set(itemId, Ops.fromInput(str));
 
 		} catch (IOException e) {
 			handleErr(INPUTIOERROR);
@@ -394,7 +637,6 @@ class Edit {
 	}
 
 	private void execIf() throws InterpreterException {
-		debug("If statement");
 		boolean result;
 
 		nextItem();
@@ -406,7 +648,7 @@ class Edit {
 			return;
 		}
 
-		vars.push(new TreeMap<String, Object>());
+		push();
 		commands.push(new IfStat(result));
 
 		if (result) { // Execute the If // Throw away Then
@@ -421,7 +663,6 @@ class Edit {
 	}
 
 	private void execElse() throws InterpreterException {
-		debug("Else statement");
 		Command c = commands.peek();
 
 		if (c.comm != IF) {
@@ -464,29 +705,27 @@ class Edit {
 
 	// for loops
 	private void execFor() throws InterpreterException {
-		debug("For Loop");
-		double i;
+		Object i;
 		int expLoc, ittLoc, loc;
-		String vname;
+		int vname;
 
 		nextItem(); // control variable
-		vname = item;
+		vname = itemId;
 
 		nextItem(); // =
-		if (item.equals("=")) {
+		if (op == '=') {
 			nextItem();
-			try {
-				i = (double) evaluate(); // initial value
-			} catch (ClassCastException exc) {
+			i = evaluate(); // initial value, a whole number stays one
+			if (!(i instanceof Number)) {
 				handleErr(EXPERR);
 				return;
 			}
 
-			vars.peek().put(vname, i); // add value to map
+			set(vname, i); // set the control variable
 		}
 
 		// evaluate should end with ,
-		if (!item.equals(",")) {
+		if (op != ',') {
 			handleErr(SYNTAX);
 			return;
 		}
@@ -497,7 +736,7 @@ class Edit {
 		// can run once && skip to itt
 		try {
 			if (!(boolean) evaluate()) {
-				vars.push(new TreeMap<String, Object>());
+				push();
 				commands.push(new ForLoop());
 				nextEnd(); // else skip it all
 				return;
@@ -507,7 +746,7 @@ class Edit {
 		}
 
 		// evaluate ends in ,
-		if (!item.equals(",")) {
+		if (op != ',') {
 			handleErr(SYNTAX);
 			return;
 		}
@@ -534,13 +773,13 @@ class Edit {
 			handleErr(EXPERR);
 			return;
 		}
+		newfor.event = Events.loop();
 
-		vars.push(new TreeMap<String, Object>());
+		push();
 		commands.push(newfor); // add to stack
 	}
 
 	private void execWhile() throws InterpreterException {
-		debug("While Loop");
 		int expLoc;
 
 		expLoc = progIdx;
@@ -550,7 +789,7 @@ class Edit {
 		// can run once
 		try {
 			if (!(boolean) evaluate()) {
-				vars.push(new TreeMap<String, Object>());
+				push();
 				commands.push(new WhileLoop());
 				nextEnd(); // else skip it all
 				return;
@@ -569,13 +808,13 @@ class Edit {
 		nextItem(); // should be EOL
 
 		WhileLoop loop = new WhileLoop(expLoc, loc, progLine);
+		loop.event = Events.loop();
 
-		vars.push(new TreeMap<String, Object>());
+		push();
 		commands.push(loop); // add to stack
 	}
 
-	private void newFunction() throws InterpreterException {
-		debug("New Function");
+	private void newFunction(boolean pure) throws InterpreterException {
 
 		String fName;
 
@@ -589,22 +828,22 @@ class Edit {
 
 		nextItem(); // should be "("
 
-		if (!item.equals("(")) {
+		if (op != '(') {
 			handleErr(SYNTAX);
 		}
 
 		nextItem(); // should be ")" or params
 
-		ArrayList<String> params = new ArrayList<String>();
+		ArrayList<Integer> params = new ArrayList<Integer>();
 
-		if (!item.equals(")")) {
+		if (op != ')') {
 			if (Character.isLetter(item.charAt(0))) {
-				params.add(item);
-				while (nextItem() && item.equals(",")) {
+				params.add(itemId);
+				while (nextItem() && op == ',') {
 					nextItem();
-					params.add(item);
+					params.add(itemId);
 				}
-				if (!item.equals(")")) {
+				if (op != ')') {
 					handleErr(SYNTAX);
 				}
 
@@ -621,65 +860,198 @@ class Edit {
 
 		}
 
-		Function f = new Function(progIdx, -1, params);
+		int[] ids = new int[params.size()];
+		for (int p = 0; p < ids.length; p++)
+			ids[p] = params.get(p);
+		Function f = new Function(progIdx, -1, ids);
+		if (pure)
+			f.memo = memos.of(f, fName);
 
 		functs.put(fName.toLowerCase(), f);
-		vars.push(new TreeMap<String, Object>());
+		gen++; // names may call another function now
+		push();
 		commands.push(f);
 
 		nextEnd();
 		nextItem(); // should be EOL
 	}
 
+	// A return f(...) ends the running function and f runs in its place,
+	// in the same Java frame, so tail recursion does not grow the Java
+	// stack. A pure f is called as usual, so its result is kept.
 	private Object execFunct() throws InterpreterException {
-		debug("Execute Function");
 
-		Function f = functs.get(item.toLowerCase());
+		int callIdx = progIdx - 1;
+		Function f = function(callIdx);
+		String name = tokens.text[tokens.cons[callIdx]];
+		Object[] args = args(f);
+		int line = progLine; // of the call, where it goes back to
+
+		if (calls == maxDepth)
+			handleErr(TOODEEP);
+
+		// A pure function only calls pure ones
+		Memo memo = f.memo;
+		if (memo == null && pureBlock >= 0)
+			handleErr(IMPURE);
+		List<Object> key = null;
+		if (memo != null) {
+			key = Memo.key(args, args.length);
+			Object o = memo.get(key);
+			if (o != null) {
+				called++;
+				return Memo.value(o);
+			}
+		}
+
+		calls++;
+		ArrayList<String> tails = null; // for the trace, ended by a tail
+		Object o;
+		while (true) {
+			Ops.poll(progLine);
+			called++;
+			if (trace != null)
+				trace.call(name, progLine, commands.size());
+			Events.Call ev = Events.call(progLine);
+
+			vars.call();
+			if (trace != null)
+				trace.push(commands.size());
+			for (int p = 0; p < args.length; p++) {
+				vars.let(f.params[p], args[p]); // even if a top level name
+				if (trace != null)
+					trace.write(tokens.text[f.params[p]], args[p],
+							commands.size());
+			}
+
+			// Each call has its own frame with where to go back to, a
+			// recursive call can not change the return of the one that
+			// made it
+			Function frame = new Function(f.loc, progIdx, f.params);
+			frame.memo = memo;
+			frame.name = name;
+			frame.line = line;
+
+			progIdx = f.loc;
+			progLine = tokens.line[progIdx];
+			if (sampler == null)
+				commands.push(frame);
+			else
+				synchronized (commands) { // a Sampler sees both or neither
+					commands.push(frame);
+					sampleLine = progLine;
+				}
 
+			// Names below the call's block are the caller's, a pure call
+			// neither reads nor sets them
+			int outer = pureBlock;
+			if (memo != null)
+				pureBlock = vars.top();
+
+			o = runCode();
+			pureBlock = outer;
+			if (ev != null)
+				ev.done(name);
+			if (tail == null)
+				break;
+
+			// A return f(...) ended it, f runs in its place
+			if (trace != null) {
+				if (tails == null)
+					tails = new ArrayList<String>();
+				tails.add(name);
+			}
+			f = tail;
+			args = tailArgs;
+			name = tailName;
+			progLine = tailLine;
+			tail = null;
+			tailArgs = null;
+		}
+		calls--;
+		progLine = line; // back on the line of the call
+		if (sampler != null)
+			sampleLine = progLine;
+		if (memo != null)
+			memo.put(key, o);
+		if (trace != null) {
+			trace.ret(name, o, commands.size());
+			for (int t = tails == null ? 0 : tails.size(); t-- > 0;)
+				trace.ret(tails.get(t), o, commands.size());
+		}
+		return o;
+	}
+
+	// The arguments of a call of f, worked out in the caller's names. Ends
+	// on the ')'.
+	private Object[] args(Function f) throws InterpreterException {
 		nextItem();
-		if (!item.equals("(")) {
+		if (op != '(')
 			handleErr(UNBALPARENS);
-			return null;
-		}
 
 		nextItem();
 
-		TreeMap<String, Object> newVars = new TreeMap<String, Object>();
+		int[] params = f.params;
+		Object[] args = params.length == 0 ? NO_ARGS : new Object[params.length];
 
 		int i = 0;
 
-		if (!item.equals(")")) {
-			newVars.put(f.params.get(i++), evaluate());
-			while (item.equals(",")) {
+		if (op != ')') {
+			while (true) {
+				if (i == params.length) // before working out one too many
+					handleErr(TOOMANYPARAMS);
+				args[i++] = evaluate();
+				if (op != ',')
+					break;
 				nextItem();
-				newVars.put(f.params.get(i++), evaluate());
 			}
 
-			if (f.params.size() < i) {
-				handleErr(TOOMANYPARAMS);
-			}
-
-			if (!item.equals(")")) {
+			if (op != ')')
 				handleErr(UNBALPARENS);
-				return null;
-			}
 		}
+		return i == args.length ? args : Arrays.copyOf(args, i);
+	}
 
-		f.backLoc = progIdx;
-		vars.push(newVars);
-		commands.push(f);
-
-		progIdx = f.loc;
-
-		return runCode();
+	// On the f of a return f(...) that is the whole line, in a call that
+	// is not pure and with f not pure: works out the arguments and ends
+	// the running call, execFunct runs f in its place. False with nothing
+	// read for any other return.
+	private boolean tailCall() throws InterpreterException {
+		Function f = function(progIdx - 1);
+		if (calls == 0 || pureBlock >= 0 || f.memo != null)
+			return false;
+		int i = progIdx;
+		if (tokens.type[i] != DELIMITER || tokens.code[i] != '(')
+			return false;
+		int depth = 0;
+		do {
+			if (tokens.type[i] == EOL || tokens.type[i] == EOP)
+				return false; // unbalanced, left to evaluate()
+			if (tokens.type[i] == DELIMITER) {
+				if (tokens.code[i] == '(')
+					depth++;
+				else if (tokens.code[i] == ')')
+					depth--;
+			}
+			i++;
+		} while (depth > 0);
+		if (tokens.type[i] != EOL && tokens.type[i] != EOP)
+			return false; // more than the call
+		tailName = item;
+		tailLine = progLine;
+		tailArgs = args(f);
+		endComm(true);
+		tail = f;
+		return true;
 	}
 
 	private boolean endComm(boolean force) throws InterpreterException {
-		debug("End Command");
 		
 		if(force){
+			// blocks the return is in end too
 			while (commands.peek().comm!=FUNCTION){
 				commands.pop();
+				pop();
 			}
 		}
 		
@@ -690,7 +1062,7 @@ class Edit {
 		switch (p.comm) {
 		case IF:
 			nextItem();
-			passBack();
+			pop();
 			commands.pop();
 			return false;
 		case FOR:
@@ -699,20 +1071,29 @@ class Edit {
 			if (f.loc > 0) {
 				progIdx = f.itLoc;
 				nextItem();
-				vars.peek().put(f.vName, (double) evaluate());
+				if (sampler != null)
+					sampleLine = progLine; // back on the loop's line
+				Object step = evaluate();
+				if (!(step instanceof Number))
+					handleErr(EXPERR);
+				set(f.vId, step);
 				progIdx = f.expLoc;
 				nextItem();
 
 				if ((boolean) evaluate()) {
+					Ops.poll(progLine);
 					progIdx = f.loc;
 					progLine = f.line;
+					f.runs++;
 				} else {
-					passBack();
+					if (f.event != null)
+						f.event.done("for", f.line, f.runs);
+					pop();
 					commands.pop();
 					progIdx = loc;
 				}
 			} else {
-				passBack();
+				pop();
 				commands.pop();
 			}
 			nextItem();
@@ -724,17 +1105,23 @@ class Edit {
 			if (w.loc > 0) {
 				progIdx = w.expLoc;
 				nextItem(); // exp
+				if (sampler != null)
+					sampleLine = progLine; // back on the loop's line
 
 				if ((boolean) evaluate()) {
+					Ops.poll(progLine);
 					progIdx = w.loc;
 					progLine = w.line;
+					w.runs++;
 				} else {
-					passBack();
+					if (w.event != null)
+						w.event.done("while", w.line, w.runs);
+					pop();
 					commands.pop();
 					progIdx = loc;
 				}
 			} else {
-				passBack();
+				pop();
 				commands.pop();
 			}
 			nextItem();
@@ -745,8 +1132,14 @@ class Edit {
 			if (funct.backLoc > 0) {
 				progIdx = funct.backLoc;
 			}
-			passBack();
-			commands.pop();
+			pop(); // the caller's names are as they were
+			if (sampler == null)
+				commands.pop();
+			else
+				synchronized (commands) { // a Sampler sees both or neither
+					commands.pop();
+					sampleLine = funct.line; // back on the line of the call
+				}
 
 			// nextItem();
 			return true;
@@ -754,30 +1147,19 @@ class Edit {
 		return false;
 	}
 
-	// Get next End, used to skip functions
+	// Skip to the else or end of the block being run, used to skip
+	// functions. The Lexer found it when loading.
 	private void nextEnd() throws InterpreterException {
-		debug("Next end");
-		int count = 1;
-		while (count > 0 && nextItem()) {
-			if (commType > 7) { // Loops and functions and stuff
-				count++;
-				debug("Find End: " + count);
-			}
-			if (commType == END) {
-				count--;
-				debug("Find End: " + count);
-			}
-			if (commType == ELSE)
-				if (count == 1) {
-					execElse();
-					return;
-				} else if (nextItem() && commType == IF) {
-					debug("Find End: " + count);
-				}
+		int to = tokens.skip[progIdx];
+		if (to < 0) {
+			handleErr(ENDEXPECTED);
+			return;
 		}
 
-		if (commType != END) {
-			handleErr(ENDEXPECTED);
+		progIdx = to;
+		nextItem();
+		if (commType == ELSE) {
+			execElse();
 			return;
 		}
 
@@ -795,138 +1177,42 @@ class Edit {
 	// Obtain next item, returns false if EOP
 	private boolean nextItem() throws InterpreterException {
 		boolean result = getNext();
-		debug(new String[] { "Item: " + item, "CommStack: " + commands,
-				"Type: " + itemType });
+		if (trace != null)
+			trace.token(item, itemType, progLine, commands.size());
 
 		return result;
 	}
 
-	private boolean getNext() throws InterpreterException {
-
-		char ch = ' ';
+	// Read the token at progIdx, no characters are looked at here
+	private boolean getNext() {
+		int k = tokens.cons[progIdx];
 
-		item = "";
-		itemType = NONE;
+		item = tokens.text[k];
+		itemId = k;
+		itemVal = tokens.value[k];
+		itemType = tokens.type[progIdx];
+		progLine = tokens.line[progIdx];
 		commType = UNKNCOM;
+		op = NOOP;
 
-		// Skip over white space.
-		while (progIdx < prog.length && isSpaceOrTab(prog[progIdx]))
-			progIdx++;
-
-		// Check for end of program.
-		if (progIdx >= prog.length) {
-			itemType = EOP;
-			item = " ";
-			return false;
-		}
-
-		// Check for end of line
-		if (prog[progIdx] == '\r') {
-			progIdx += 2;
-			itemType = EOL;
-			item = " ";
-			progLine++;
-			return true;
-		}
-
-		// Check for char values
-		ch = prog[progIdx];
-
-		// Check for comment tag
-		if (ch == '#') {
-			while (progIdx < prog.length && prog[progIdx] != '\r')
-				// ignore line
-				progIdx++;
-			progIdx += 2;
-			itemType = EOL;
-			item = " ";
-			progLine++;
-			return true;
-		}
-
-		// Reletional operators
-		if (ch == '<' || ch == '>' || ch == '=') {
-			switch (ch) {
-			case '<':
-				if (prog[progIdx + 1] == '=') {
-					item = String.valueOf(LE);
-					progIdx += 2;
-				} else {
-					item = "<";
-					progIdx++;
-				}
-				break;
-			case '>':
-				if (prog[progIdx + 1] == '=') {
-					item = String.valueOf(GE);
-					progIdx += 2;
-				} else {
-					item = ">";
-					progIdx++;
-				}
-				break;
-			case '=':
-				if (prog[progIdx + 1] == '=') {
-					item = String.valueOf(EQ);
-					progIdx += 2;
-				} else {
-					item = "=";
-					progIdx++;
-				}
-				break;
-
-			}
-			itemType = DELIMITER;
-			return true;
+		switch (itemType) {
+		case EOP:
+			return false; // stays on the last token
+		case COMMAND:
+			commType = tokens.code[progIdx];
+			break;
+		case DELIMITER:
+			op = tokens.code[progIdx];
+			break;
+		case VARIABLE:
+			// Is funct unless a var has the same name
+			if (function(progIdx) != null && !vars.has(tokens.lower[k]))
+				itemType = FUNCT;
+			break;
 		}
 
-		if (isDelim(ch)) { // Is an operator.
-			item += prog[progIdx];
-			progIdx++;
-			itemType = DELIMITER;
-			return true;
-		} else if (ch == '"') {
-			// Is string
-			progIdx++;
-			ch = prog[progIdx]; // Skip "
-			while (ch != '"' && ch != '\r') { // Get whole string
-				item += ch;
-				progIdx++;
-				ch = prog[progIdx];
-			}
-
-			if (ch == '\r') { // end of line instead of second "
-				handleErr(MISSQUOTE);
-				return false;
-			}
-			progIdx++; // Skip second "
-			itemType = STRING;
-			return true;
-		} else {
-
-			// Is number or word
-			while (progIdx < prog.length && !isDelim(prog[progIdx])) {
-				// get entire whatever
-				item += prog[progIdx];
-				progIdx++;
-			}
-
-			if (isNumber(item)) {
-				// Is a number
-				itemType = NUMBER;
-				return true;
-			} else if (isBoolean(item)) {
-				itemType = BOOLEAN;
-				return true;
-			}
-			{
-				// Is bool op, comm, var, funct
-				itemType = lookUp(item);
-				if (itemType == UNKNCOM)
-					itemType = VARIABLE; // New variable
-				return true;
-			}
-		}
+		progIdx++;
+		return true;
 	}
 
 	//
@@ -939,86 +1225,68 @@ class Edit {
 
 	// Parser entry point.
 	private Object evaluate() throws InterpreterException {
-		debug("Evaluate");
 		Object result;
 
 		if (item.equals(EOL) || item.equals(EOP))
 			handleErr(EXPERR); // no expression present
 
-		// Parse and evaluate the expression.
-		result = evalExp1();
-
-		debug("Evaluated: " + result);
+		// Parse and evaluate the expression, boxed for the caller
+		result = Value.box(evalExp1(), num);
 
 		return result;
 	}
 
-	// Process operators.
+	// Process operators. The evalExp methods give the kind of the value as
+	// in Value, numbers stay unboxed in num.
 	private Object evalExp1() throws InterpreterException {
 		Object result, pResult;
-		double l_temp, r_temp;
+		double l_temp;
 		boolean lb, rb;
 		String ls, rs;
-		char op;
-		String str;
+		int oper;
 
 		// See if first part is expression
 		result = evalExp2();
 
-		op = item.charAt(0);
-		str = item.toLowerCase();
+		oper = op;
 
-		while (isRelOp(op) || isBoolOp(str)) {
+		while (isRelOp(oper) || isBoolOp(oper)) {
 			nextItem(); // get more stuff
 
-			if (isNumber(result)) {
+			if (Value.isNum(result)) {
+				l_temp = num;
 				pResult = evalExp2(); // second expression
-				if (isRelOp(op)) {
-					if (isNumber(result)) {
-						l_temp = (double) result;
-						r_temp = (double) pResult;
-
-						switch (op) { // perform the relational operation
-						case '<':
-							result = (l_temp < r_temp);
-							break;
-						case LE:
-							result = (l_temp <= r_temp);
-							break;
-						case '>':
-							result = (l_temp > r_temp);
-							break;
-						case GE:
-							result = (l_temp >= r_temp);
-							break;
-						case EQ:
-							result = (l_temp == r_temp);
-							break;
-						}
+				if (isRelOp(oper)) {
+					if (Value.isNum(pResult)) {
+						result = Value.bool(Ops.compare(oper, result, l_temp,
+								pResult, num));
 					} else {
 						handleErr(NOTANUMB);
 						result = null;
 					}
+				} else {
+					handleErr(NOTABOOL); // a number and, or, xor or xand
+					result = null;
 				}
-			} else if (isBoolean(result)) {
+			} else if (result instanceof Boolean) {
 				pResult = evalExp1();
-				if (isBoolOp(str)) {
-					if (isBoolean(result)) {
+				if (isBoolOp(oper)) {
+					if (pResult instanceof Boolean) {
 
 						lb = (boolean) result;
 						rb = (boolean) pResult;
-						switch (str) {
-						case "and":
-							result = (lb && rb);
+						switch (oper) {
+						case BOOL_OP + AND:
+							result = Value.bool(lb && rb);
 							break;
-						case "or":
-							result = (lb || rb);
+						case BOOL_OP + OR:
+							result = Value.bool(lb || rb);
 							break;
-						case "xor":
-							result = (lb ^ rb);
+						case BOOL_OP + XOR:
+							result = Value.bool(lb ^ rb);
 							break;
-						case "xand":
-							result = (lb == rb);
+						case BOOL_OP + XAND:
+							result = Value.bool(lb == rb);
 							break;
 						}
 					} else {
@@ -1027,29 +1295,29 @@ class Edit {
 					}
 				}
 			} else {
-				if (isRelOp(op)) {
+				if (isRelOp(oper)) {
 					pResult = evalExp2();
-					if (!isNumber(result)) {
+					if (pResult instanceof CharSequence) {
 						// second expression is String
-						rs = (String) pResult;
-						ls = (String) result;
+						rs = pResult.toString();
+						ls = ((CharSequence) result).toString();
 						double test = (ls.compareTo(rs));
 
-						switch (op) { // perform the relational operation
+						switch (oper) { // perform the relational operation
 						case '<':
-							result = test < 0;
+							result = Value.bool(test < 0);
 							break;
 						case LE:
-							result = test <= 0;
+							result = Value.bool(test <= 0);
 							break;
 						case '>':
-							result = test > 0;
+							result = Value.bool(test > 0);
 							break;
 						case GE:
-							result = test >= 0;
+							result = Value.bool(test >= 0);
 							break;
 						case EQ:
-							result = test == 0;
+							result = Value.bool(test == 0);
 							break;
 						}
 					} else {
@@ -1058,49 +1326,42 @@ class Edit {
 					}
 				}
 			}
-			op = item.charAt(0);
-			str = item.toLowerCase();
+			oper = op;
 		}
 
-		if (DEBUG_E)
-			debug("1: " + result);
 
 		return result;
 	}
 
 	// Add or subtract two terms.
 	private Object evalExp2() throws InterpreterException {
-		char op;
+		int oper;
 		Object result;
 		Object pResult;
+		double l_temp;
 
 		result = evalExp3();
 
-		while ((op = item.charAt(0)) == '+' || op == '-') {
+		while ((oper = op) == '+' || oper == '-') {
 			nextItem(); // get more stuff
+			l_temp = num;
 			pResult = evalExp3();
 
-			if (isNumber(result)) {// number
-				if (isNumber(pResult)) {// also number
-					switch (op) {
-					case '-':
-						result = (double) result - (double) pResult;
-						break;
-					case '+':
-						result = (double) result + (double) pResult;
-						break;
-					}
+			if (Value.isNum(result)) {// number
+				if (Value.isNum(pResult)) {// also number
+					result = arith(oper, result, l_temp, pResult, num);
 				} else {
 					handleErr(NOTANUMB);
 					return null;
 				}
-			} else if (!isBoolean(result)) {// string
-				if (!isNumber(pResult) && !isBoolean(pResult)) {// also string
-					switch (op) {
+			} else if (!(result instanceof Boolean)) {// string
+				if (pResult instanceof CharSequence) {// also string
+					switch (oper) {
 					case '-':
 						handleErr(INVALIDEXP);
 					case '+':
-						result = (String) result + (String) pResult;
+						result = Rope.concat((CharSequence) result,
+								(CharSequence) pResult);
 						break;
 					}
 				} else {
@@ -1109,111 +1370,92 @@ class Edit {
 				}
 			}
 		}
-		if (DEBUG_E)
-			debug("2: " + result);
 		return result;
 	}
 
 	// Multiply or divide two factors.
 	private Object evalExp3() throws InterpreterException {
-		char op;
-		Object result;
-		Object partialResult;
+		int oper;
+		Object result, pResult;
+		double l_temp;
 
 		result = evalExp4();
 
-		while ((op = item.charAt(0)) == '*' || op == '/' || op == '%') {
-			if (!isNumber(result)) { // must be number or invalid operator
+		while ((oper = op) == '*' || oper == '/' || oper == '%') {
+			if (!Value.isNum(result)) { // must be number or invalid operator
 				handleErr(NOTANUMB);
 				return null;
 			}
 
 			nextItem();
-			partialResult = evalExp4();
-
-			if (!isNumber(partialResult)) { // also must be number
+			l_temp = num;
+			pResult = evalExp4();
+			if (!Value.isNum(pResult)) { // also must be number
 				handleErr(NOTANUMB);
 				return null;
 			}
 
-			switch (op) {
-			case '*':
-				result = (double) result * (double) partialResult;
-				break;
-			case '/':
-				if ((double) partialResult == 0.0)
-					handleErr(DIVBYZERO);
-				result = (double) result / (double) partialResult;
-				break;
-			case '%':
-				if ((double) partialResult == 0.0)
-					handleErr(DIVBYZERO);
-				result = (double) result % (double) partialResult;
-				break;
-			}
+			if (oper != '*' && Value.dbl(pResult, num) == 0.0)
+				handleErr(DIVBYZERO);
+			result = arith(oper, result, l_temp, pResult, num);
 		}
-		if (DEBUG_E)
-			debug("3: " + result);
 		return result;
 	}
 
 	// Process an exponent.
 	private Object evalExp4() throws InterpreterException {
-		Object result;
-		Object partialResult;
+		Object result, pResult;
 		double ex;
-		double t;
 
 		result = evalExp5();
 
-		if (item.equals("^")) {
-			if (!isNumber(result)) { // must be number or invalid operator
+		if (op == '^') {
+			if (!Value.isNum(result)) { // must be number or invalid operator
 				handleErr(NOTANUMB);
 				return null;
 			}
 
 			nextItem();
-			partialResult = evalExp4();
-
-			if (!isNumber(partialResult)) { // must also be number
+			ex = num;
+			pResult = evalExp4();
+			if (!Value.isNum(pResult)) { // must also be number
 				handleErr(NOTANUMB);
 				return null;
 			}
 
-			ex = (double) result;
-			if ((double) partialResult == 0.0) {
-				result = 1.0;
-			} else
-				for (t = (double) partialResult - 1; t > 0; t--)
-					result = (double) result * ex;
+			result = arith('^', result, ex, pResult, num);
 		}
-		if (DEBUG_E)
-			debug("4: " + result);
 		return result;
 	}
 
 	// Evaluate a unary + or - and NOT
 	private Object evalExp5() throws InterpreterException {
 		Object result;
-		String op = item;
+		int oper = op;
 
-		if (item.equals("-") || item.toLowerCase().equals(bOps[NOT])) {
+		if (op == '-' || op == BOOL_OP + NOT) {
 
 			nextItem();
 			result = evalExp6();
 
-			if (isNumber(result)) {
+			if (Value.isNum(result)) {
 				// is number
-				if (op.equals("-"))
-					result = -(double) result;
-				else {
+				if (oper == '-' && result == Value.NUM)
+					num = -num;
+				else if (oper == '-' && Value.whole(num) != Long.MIN_VALUE)
+					num = Value.bits(-Value.whole(num));
+				else if (oper == '-') { // too big to stay whole
+					Object o = Ops.unary('-', Value.box(result, num), progLine);
+					num = Value.num(o);
+					result = Value.ref(o);
+				} else {
 					handleErr(NOTABOOL);
 					return null;
 				}
-			} else if (isBoolean(result)) {
+			} else if (result instanceof Boolean) {
 				// is boolean
-				if (op.toLowerCase().equals(bOps[NOT]))
-					result = !(boolean) result;
+				if (oper == BOOL_OP + NOT)
+					result = Value.bool(!(boolean) result);
 				else {
 					handleErr(NOTANUMB);
 					return null;
@@ -1226,8 +1468,6 @@ class Edit {
 		} else {
 			result = evalExp6();
 		}
-		if (DEBUG_E)
-			debug("5: " + result);
 		return result;
 	}
 
@@ -1235,10 +1475,10 @@ class Edit {
 	private Object evalExp6() throws InterpreterException {
 		Object result;
 
-		if (item.equals("(")) {
+		if (op == '(') {
 			nextItem();
 			result = evalExp1();
-			if (!item.equals(")"))
+			if (op != ')')
 				handleErr(UNBALPARENS);
 			nextItem();
 			return result;
@@ -1246,39 +1486,47 @@ class Edit {
 			result = atom();
 			nextItem();
 		}
-		if (DEBUG_E)
-			debug("6: " + result);
 		return result;
 	}
 
+	// l op r for two numbers, the kind of the result, its number in num.
+	// Two whole numbers give a whole number when it is one.
+	private Object arith(int op, Object l, double ln, Object r, double rn)
+			throws InterpreterException {
+		if (l == Value.INT && r == Value.INT) {
+			try {
+				num = Value.bits(Ops.whole(op, Value.whole(ln),
+						Value.whole(rn), progLine));
+				return Value.INT;
+			} catch (ArithmeticException exc) {
+				// in doubles
+			}
+		}
+		num = Ops.arith(op, Value.dbl(l, ln), Value.dbl(r, rn), progLine);
+		return Value.NUM;
+	}
+
 	// Get the value of a number or variable.
 	private Object atom() throws InterpreterException {
+		Object o;
+
 		switch (itemType) {
 		case FUNCT:
-			return execFunct();
-		case NUMBER:
-			try {
-				return Double.parseDouble(item);
-			} catch (NumberFormatException exc) {
-				handleErr(NOTANUMB);
-			}
+			o = execFunct();
+			break;
 		case VARIABLE:
-			Object o = getVarVal(item);
-			if (isNumber(o)) {
-				if (DEBUG_E)
-					debug("atom: " + o.toString());
-				return Double.parseDouble(o.toString());
-			}
-			if (isBoolean(o))
-				return toBoolean((String) o);
-			return o;
+			o = getVarVal(itemId);
+			break;
+		case NUMBER: // parsed by the lexer
 		case BOOLEAN:
-			return toBoolean(item);
 		case STRING:
-			return item;
+			o = itemVal;
+			break;
 		default:
 			return null;
 		}
+		num = Value.num(o);
+		return Value.ref(o);
 	}
 
 	//
@@ -1289,100 +1537,36 @@ class Edit {
 	//
 	//
 
-	private boolean isDelim(char c) {
-		if ((" \r,<>+-/*%^=();#".indexOf(c) != -1))
-			return true;
-		return false;
-	}
-
-	// Return true if c is a space or a tab.
-	boolean isSpaceOrTab(char c) {
-		if (c == ' ' || c == '\t')
-			return true;
-		return false;
-	}
-
-	boolean isRelOp(char c) {
-		if (relops.indexOf(c) != -1)
+	boolean isRelOp(int o) {
+		switch (o) {
+		case LE:
+		case GE:
+		case '<':
+		case '>':
+		case EQ:
 			return true;
-		return false;
-	}
-
-	boolean isBoolOp(String str) {
-		for (int i = 0; i < bOps.length; i++) {
-			if (bOps[i].equals(str))
-				return true;
 		}
 		return false;
 	}
 
-	boolean isBoolean(Object o) {
-		return o.toString().toLowerCase().equals("true")
-				|| o.toString().toLowerCase().equals("false");
-	}
-
-	boolean toBoolean(Object o) {
-		return o.toString().toLowerCase().equals("true");
-	}
-
-	boolean isNumber(Object o) {
-		String str = o.toString();
-		for (int i = 0; i < str.length(); i++) {
-			if (!Character.isDigit(str.charAt(i)) && str.charAt(i) != '-'
-					&& str.charAt(i) != '.')
-				return false;
-		}
-		return true;
-	}
-
-	private int lookUp(String str) {
-		int i;
-		// Convert to lowercase.
-		str = str.toLowerCase();
-
-		// Variable
-		for (TreeMap<String, Object> tm : vars) {
-			if (tm.containsKey(str)) {
-				return VARIABLE;
-			}
-		}
-
-		// Function
-		if (functs.containsKey(str)) {
-			return FUNCT;
-		}
-
-		// Bool Op
-		for (i = 0; i < bOps.length; i++) {
-			if (bOps[i].equals(str))
-				return DELIMITER;
-		}
-
-		// Command
-		for (i = 0; i < commTable.length; i++) {
-			if (commTable[i].equals(str)) {
-				commType = i;
-				return COMMAND;
-			}
-		}
-		return UNKNCOM; // unknown keyword
+	boolean isBoolOp(int o) {
+		return o >= BOOL_OP;
 	}
 
 	private void assignVar() throws InterpreterException {
-		debug("Assign variable");
-		String var;
+		int var;
 
 		// get the variable name
-		var = item;
+		var = itemId;
 
-		if (!Character.isLetter(var.charAt(0))) {
+		if (!Character.isLetter(item.charAt(0))) {
 			handleErr(NOTAVAR);
 			return;
 		}
 
 		// get equal sign
 		nextItem();
-		if (!item.equals("=")) {
+		if (op != '=') {
 			handleErr(EQUALEXPECTED);
 			return;
 		}
@@ -1391,39 +1575,55 @@ class Edit {
 
 		// check if next is number or string
 
-		vars.peek().put(var, evaluate());
+		set(var, evaluate());
 	}
 
-	private void passBack() {
-		TreeMap<String, Object> tvars = vars.pop();
-
-		for (String str : tvars.keySet()) {
-			if (vars.peek().containsKey(str)) {
-				vars.peek().put(str, tvars.get(str));
-			}
+	// The function the name at token i calls, null for none. The TreeMap
+	// is only asked again after a function is defined.
+	private Function function(int i) {
+		if (siteGen[i] != gen) {
+			sites[i] = functs.get(tokens.key[tokens.cons[i]]);
+			siteGen[i] = gen;
 		}
+		return sites[i];
+	}
+
+	// Set a variable in the innermost block
+	private void set(int id, Object o) throws InterpreterException {
+		if (pureBlock >= 0 && vars.has(id) && vars.depth(id) < pureBlock)
+			handleErr(IMPURE);
+		vars.put(id, o);
+		if (trace != null)
+			trace.write(tokens.text[id], o, commands.size());
+	}
+
+	private void push() {
+		vars.push();
+		if (trace != null)
+			trace.push(commands.size());
+	}
+
+	private void pop() {
+		vars.pop();
+		if (trace != null)
+			trace.pop(commands.size());
 	}
 
 	// Value Type must be handled when calling!!
-	private Object getVarVal(String vname) throws InterpreterException {
-		if (!Character.isLetter(vname.charAt(0))) {
+	private Object getVarVal(int id) throws InterpreterException {
+		if (!Character.isLetter(item.charAt(0))) {
 			handleErr(NOTAVAR);
 			return 0;
 		}
 
-		Object o = null;
-
-		for (TreeMap<String, Object> tm : vars) {
-			if (tm.containsKey(vname)) {
-				o = tm.get(vname);
-			}
-		}
+		Object o = vars.get(id);
 
 		if (o == null) {
 			handleErr(NOTAVAR);
 		}
+		if (pureBlock >= 0 && vars.depth(id) < pureBlock)
+			handleErr(IMPURE);
 
-		debug("Get var: " + o);
 		return o; // return Object
 	}
 
@@ -1436,12 +1636,18 @@ class Edit {
 	//
 
 	@SuppressWarnings("serial")
-	class InterpreterException extends Exception {
+	static class InterpreterException extends Exception {
 
 		String errStr;
+		final int code; // of errStr, UNKNOWN when not given
 
 		public InterpreterException(String str) {
+			this(UNKNOWN, str);
+		}
+
+		public InterpreterException(int error, String str) {
 			this.errStr = str;
+			code = error;
 		}
 
 		public String toString() {
@@ -1449,34 +1655,50 @@ class Edit {
 		}
 	}
 
+	// A RuntimeException escaping an engine, as an UNKNOWN error
+	static InterpreterException unknown(RuntimeException exc) {
+		InterpreterException e = new InterpreterException(UNKNOWN,
+				errStr[UNKNOWN] + ": " + exc);
+		e.initCause(exc);
+		return e;
+	}
+
+	// Text for each error code
+	static final String[] errStr = new String[UNKNOWN + 1];
+
+	static {
+		errStr[SYNTAX] = "Syntax Error";
+		errStr[UNBALPARENS] = "(... or ...)";
+		errStr[DIVBYZERO] = "1/0";
+		errStr[EQUALEXPECTED] = "Equal Expected";
+		errStr[NOTAVAR] = "For vars that have no value: assignments,loops";
+		errStr[NOTABOOL] = "Not a boolean";
+		errStr[NOTANUMB] = "Not a number";
+		errStr[NOTASTR] = " Not a string";
+		errStr[DUPFUNCTION] = "Two functions with same name";
+		errStr[ENDEXPECTED] = "Reaches end of program without end";
+		errStr[THENEXPECTED] = "No then after if";
+		errStr[DOEXPECTED] = "No then after if";
+		errStr[MISSQUOTE] = "Strings missing a quote";
+		errStr[UNKFUNCTION] = "Unknown function";
+		errStr[INVALIDEXP] = "Invalid Expression";
+		errStr[UNEXPITEM] = "Unexpeced Item";
+		errStr[TOOMANYPARAMS] = "Too many parameters";
+		errStr[FILENOTFOUND] = "Can't find file";
+		errStr[INPUTIOERROR] = "Input that fails";
+		errStr[EXPERR] = "For if, while and for";
+		errStr[FILEIOERROR] = "Can't load file";
+		errStr[OUTPUTIOERROR] = "Can't write output";
+		errStr[STOPPED] = "Run stopped";
+		errStr[TOODEEP] = "Calls nested too deep";
+		errStr[IMPURE] = "Not allowed in a pure function";
+		errStr[UNKNOWN] = "Unknown error";
+	}
+
 	// Handle an error.
 	private void handleErr(int error) throws InterpreterException {
-		String[] err = new String[UNKNOWN + 1];
-
-		err[SYNTAX] = "Syntax Error";
-		err[UNBALPARENS] = "(... or ...)";
-		err[DIVBYZERO] = "1/0";
-		err[EQUALEXPECTED] = "Equal Expected";
-		err[NOTAVAR] = "For vars that have no value: assignments,loops";
-		err[NOTABOOL] = "Not a boolean";
-		err[NOTANUMB] = "Not a number";
-		err[NOTASTR] = " Not a string";
-		err[DUPFUNCTION] = "Two functions with same name";
-		err[ENDEXPECTED] = "Reaches end of program without end";
-		err[THENEXPECTED] = "No then after if";
-		err[DOEXPECTED] = "No then after if";
-		err[MISSQUOTE] = "Strings missing a quote";
-		err[UNKFUNCTION] = "Unknown function";
-		err[INVALIDEXP] = "Invalid Expression";
-		err[UNEXPITEM] = "Unexpeced Item";
-		err[FILENOTFOUND] = "Can't find file";
-		err[INPUTIOERROR] = "Input that fails";
-		err[EXPERR] = "For if, while and for";
-		err[FILEIOERROR] = "Can't load file";
-		err[UNKNOWN] = "Unknown error";
-
-		throw new InterpreterException(err[error] + ": " + progIdx
+		throw new InterpreterException(error, errStr[error] + ": " + progIdx
 				+ "\nLine number: " + progLine + "\nItem: " + item
 				+ "\nItem Type: " + itemType + "\ncommType: " + commType);
 	}
-}
\ No newline at end of file
+}
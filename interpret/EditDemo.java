@@ -1,5 +1,12 @@
 package interpret;
 
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import interpret.Edit.InterpreterException;
 
 public class EditDemo {
@@ -10,14 +17,74 @@ public class EditDemo {
 			return;
 		}
 		try {
-			Edit ob = new Edit(args[0]);
-			ob.run(toBoolean(args[1]));
+			// -Dedit.cache=dir keeps the tokens of programs in dir
+			Edit ob = new Edit(args[0], System.getProperty("edit.cache"));
+			if (args.length > 3)
+				ob.setJit(toJit(args[3]));
+			// -Dedit.replay=file reads the lines an earlier -Dedit.record=file
+			// kept, in place of the input file or the keyboard
+			String replay = System.getProperty("edit.replay");
+			Input in = Input.stdin();
+			if (replay != null)
+				in = Input.replay(replay);
+			else if (args.length > 4) // lines for input, not the keyboard
+				in = Input.file(args[4]);
+			String record = System.getProperty("edit.record");
+			Writer transcript = record == null ? null
+					: new OutputStreamWriter(new FileOutputStream(record),
+							StandardCharsets.UTF_8);
+			if (transcript != null)
+				in = in.record(transcript);
+			ob.setInput(in);
+			// -Dedit.doubles=true prints 3 as 3.0, like older versions
+			ob.setPrintDoubles(Boolean.getBoolean("edit.doubles"));
+			// -Dedit.profile=true shows the hottest lines and functions
+			ob.setProfile(Boolean.getBoolean("edit.profile"));
+			// -Dedit.samples=file writes where the run spent its time, as
+			// collapsed stacks, sampled every -Dedit.sampleEvery=us
+			String samples = System.getProperty("edit.samples");
+			// -Dedit.jmx=true shows Metrics over JMX, as interpret:type=Metrics
+			if (Boolean.getBoolean("edit.jmx"))
+				Metrics.register();
+			if (samples != null)
+				ob.setSampling(Long.getLong("edit.sampleEvery",
+						Sampler.INTERVAL));
+			// -Dedit.dump=true shows the program the tree and vm engines run
+			if (Boolean.getBoolean("edit.dump"))
+				System.out.println(ob.optimized());
+			try {
+				ob.run(args.length > 1 && toBoolean(args[1]),
+						args.length > 2 ? toEngine(args[2]) : Edit.INTERP);
+			} finally {
+				if (transcript != null)
+					transcript.close();
+			}
+			if (samples != null)
+				try (Writer w = new FileWriter(samples)) {
+					ob.writeSamples(w);
+				}
 		} catch (InterpreterException exc) {
 			System.out.println(exc);
+		} catch (IOException exc) {
+			System.out.println(exc);
 		}
 	}
 	
 	public static boolean toBoolean(String s){
 		return s.equals("true");
 	}
+
+	// interp, tree or vm
+	public static int toEngine(String s){
+		if (s.equals("vm"))
+			return Edit.VM;
+		return s.equals("tree") ? Edit.TREE : Edit.INTERP;
+	}
+
+	// off, tiered or eager
+	public static int toJit(String s){
+		if (s.equals("off"))
+			return Jit.OFF;
+		return s.equals("eager") ? Jit.EAGER : Jit.TIERED;
+	}
 }
@@ -0,0 +1,234 @@
+package interpret;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// JDK Flight Recorder events, all under "Edit". Each is made by a method
+// here that gives null unless a recording has it on, so with none the
+// engines do one check and keep nothing, as with a Trace. Until Flight
+// Recorder is started no event class is even loaded, the first one loaded
+// sets up much of it. The events of a run are on its thread, inside its
+// Run event, which names the program; calls, loops and reads give the
+// line. Calls and loops shorter than 20 ms are not recorded unless the
+// recording's threshold says otherwise.
+class Events {
+
+	private Events() {
+	}
+
+	@Name("edit.Load")
+	@Label("Load Program")
+	@Category("Edit")
+	@Description("A program read and split into tokens, or taken from a cache")
+	@StackTrace(false)
+	static class Load extends Event {
+		@Label("Program")
+		String program;
+
+		@Label("Size")
+		@Description("Bytes of the source file")
+		@DataAmount
+		long size;
+
+		@Label("Tokens")
+		int tokens;
+
+		@Label("Cache")
+		@Description("Tokens from the cache directory, or put there")
+		boolean cache;
+
+		void done(String p, long s, int t, boolean c) {
+			end();
+			if (shouldCommit()) {
+				program = p;
+				size = s;
+				tokens = t;
+				cache = c;
+				commit();
+			}
+		}
+	}
+
+	@Name("edit.Run")
+	@Label("Run Program")
+	@Category("Edit")
+	@Description("A run of a program, from start to end")
+	@StackTrace(false)
+	static class Run extends Event {
+		@Label("Program")
+		String program;
+
+		@Label("Engine")
+		String engine;
+
+		@Label("Error")
+		@Description("Message of the error it ended with, null when none")
+		String error;
+
+		void done(String p, String e, String err) {
+			end();
+			if (shouldCommit()) {
+				program = p;
+				engine = e;
+				error = err;
+				commit();
+			}
+		}
+	}
+
+	@Name("edit.Call")
+	@Label("Function Call")
+	@Category("Edit")
+	@Description("A call of an Edit function, from call to return")
+	@Threshold("20 ms")
+	@StackTrace(false)
+	static class Call extends Event {
+		@Label("Function")
+		String function;
+
+		@Label("Line")
+		@Description("Line of the call")
+		int line;
+
+		void done(String f) {
+			end();
+			if (shouldCommit()) {
+				function = f;
+				commit();
+			}
+		}
+	}
+
+	@Name("edit.Loop")
+	@Label("Loop")
+	@Category("Edit")
+	@Description("A for or while loop run to its end")
+	@Threshold("20 ms")
+	@StackTrace(false)
+	static class Loop extends Event {
+		@Label("Kind")
+		String kind;
+
+		@Label("Line")
+		int line;
+
+		@Label("Iterations")
+		long iterations;
+
+		void done(String k, int l, long n) {
+			end();
+			if (shouldCommit()) {
+				kind = k;
+				line = l;
+				iterations = n;
+				commit();
+			}
+		}
+	}
+
+	@Name("edit.Input")
+	@Label("Input")
+	@Category("Edit")
+	@Description("Waiting for a line of input")
+	@StackTrace(false)
+	static class Input extends Event {
+		@Label("Line")
+		int line;
+
+		void done(int l) {
+			end();
+			if (shouldCommit()) {
+				line = l;
+				commit();
+			}
+		}
+	}
+
+	@Name("edit.Print")
+	@Label("Print")
+	@Category("Edit")
+	@Description("Printed text handed to where it goes, prints in between "
+			+ "only fill a buffer")
+	@StackTrace(false)
+	static class Print extends Event {
+		@Label("Chars")
+		int chars;
+
+		void done(int n) {
+			end();
+			if (shouldCommit()) {
+				chars = n;
+				commit();
+			}
+		}
+	}
+
+	static Load load() {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Load e = new Load();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+
+	static Run run() {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Run e = new Run();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+
+	// A call made on line
+	static Call call(int line) {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Call e = new Call();
+		if (!e.isEnabled())
+			return null;
+		e.line = line;
+		e.begin();
+		return e;
+	}
+
+	static Loop loop() {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Loop e = new Loop();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+
+	static Input input() {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Input e = new Input();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+
+	static Print print() {
+		if (!FlightRecorder.isInitialized())
+			return null;
+		Print e = new Print();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+}
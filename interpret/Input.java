@@ -0,0 +1,97 @@
+package interpret;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import interpret.Edit.InterpreterException;
+
+// Where input reads its lines. An Edit keeps one for all its runs, so lines
+// read ahead by the buffer are never lost. Lines can come from standard
+// input, a file, a list, or a transcript that record() wrote in an earlier
+// session, which replays that session exactly.
+public abstract class Input {
+
+	private static Input stdin;
+
+	// The next line without its end, null when there are no more
+	public abstract String readLine() throws IOException;
+
+	// Standard input, one reader for the whole process
+	public static synchronized Input stdin() {
+		if (stdin == null)
+			stdin = of(new InputStreamReader(System.in));
+		return stdin;
+	}
+
+	public static Input of(Reader r) {
+		BufferedReader br = r instanceof BufferedReader ? (BufferedReader) r
+				: new BufferedReader(r, 65536);
+		return new Input() {
+			public String readLine() throws IOException {
+				return br.readLine();
+			}
+		};
+	}
+
+	// The lines of a UTF-8 file
+	public static Input file(String name) throws InterpreterException {
+		try {
+			return of(new InputStreamReader(new FileInputStream(name),
+					StandardCharsets.UTF_8));
+		} catch (FileNotFoundException exc) {
+			throw new InterpreterException(Edit.FILENOTFOUND,
+					Edit.errStr[Edit.FILENOTFOUND] + ": " + name);
+		}
+	}
+
+	// The given lines, then the end of the input
+	public static Input of(List<String> lines) {
+		return new Input() {
+			private int next;
+
+			public String readLine() {
+				return next < lines.size() ? lines.get(next++) : null;
+			}
+		};
+	}
+
+	// A transcript from record(), read whole so a replay never waits
+	public static Input replay(String name) throws InterpreterException {
+		try {
+			return of(Files.readAllLines(Paths.get(name),
+					StandardCharsets.UTF_8));
+		} catch (NoSuchFileException exc) {
+			throw new InterpreterException(Edit.FILENOTFOUND,
+					Edit.errStr[Edit.FILENOTFOUND] + ": " + name);
+		} catch (IOException exc) {
+			throw new InterpreterException(Edit.FILEIOERROR,
+					Edit.errStr[Edit.FILEIOERROR] + ": " + name);
+		}
+	}
+
+	// Same lines as this one, each is also written to the transcript
+	public Input record(Writer transcript) {
+		Input from = this;
+		return new Input() {
+			public String readLine() throws IOException {
+				String s = from.readLine();
+				if (s != null) {
+					transcript.write(s);
+					transcript.write('\n');
+					transcript.flush(); // kept if the run dies
+				}
+				return s;
+			}
+		};
+	}
+}
@@ -0,0 +1,971 @@
+package interpret;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import interpret.Edit.InterpreterException;
+
+// Second tier of the VM. A function that is called or loops often enough is
+// turned into a JVM class (a hidden class) that HotSpot then compiles to
+// machine code like any other Java. Values are kept as in Value, a ref and
+// a double side by side in the JVM locals and stack, and anything but plain
+// number arithmetic goes through the helpers at the bottom, so the results
+// match the VM. Anything this can't translate keeps running in the VM.
+class Jit {
+
+	// Modes
+	static final int OFF = 0; // only the VM runs
+	static final int TIERED = 1; // compile functions once they are hot
+	static final int EAGER = 2; // compile every function before running
+
+	static final int THRESHOLD = 1000; // calls plus loops before compiling
+	static final int MAX_NESTED = 512; // compiled calls on the Java stack
+
+	// A compiled function, its arguments are in argRefs and argNums and the
+	// number of the result is left in num
+	interface Code {
+		Object run(Jit rt) throws InterpreterException;
+	}
+
+	// Read and written by the compiled code
+	Object[] argRefs;
+	double[] argNums;
+	double num;
+
+	private VM vm;
+	private Chunk[] functs;
+	private Object[] consts;
+	private int mode;
+	private int threshold;
+	int nested; // compiled calls running, deeper ones stay in the VM
+
+	public Jit(VM v, Compiler comp, int m) {
+		vm = v;
+		functs = comp.functs;
+		consts = comp.consts;
+		mode = m;
+		threshold = THRESHOLD;
+
+		int n = 0;
+		for (Chunk c : functs)
+			n = Math.max(n, c.nParams);
+		argRefs = new Object[n];
+		argNums = new double[n];
+	}
+
+	// Compile every function that can be
+	void compileAll() {
+		for (Chunk c : functs) {
+			if (c.jit == null)
+				compile(c);
+		}
+	}
+
+	// Count a call, true when the function is compiled
+	boolean hot(Chunk c) {
+		if (c.jit != null)
+			return true;
+		if (c.noJit || mode == OFF || ++c.calls + c.loops < threshold)
+			return false;
+		return compile(c);
+	}
+
+	// Arguments of a call from the VM, parameters not passed are unset
+	void args(Object[] refs, double[] nums, int from, Chunk f, int argc) {
+		System.arraycopy(refs, from, argRefs, 0, argc);
+		System.arraycopy(nums, from, argNums, 0, argc);
+		Arrays.fill(argRefs, argc, f.nParams, null);
+	}
+
+	// A call made by compiled code, the arguments are in place. Compiled
+	// calls nest on the Java stack, so past MAX_NESTED of them the VM runs
+	// the call with its own frames.
+	Object call(int f, int argc, int line) throws InterpreterException {
+		Chunk c = functs[f];
+		vm.calls++;
+		Ops.poll(line);
+		if (nested + vm.frames() >= vm.maxDepth)
+			throw Ops.error(Edit.TOODEEP, line);
+		Arrays.fill(argRefs, argc, c.nParams, null);
+
+		Memo memo = null;
+		List<Object> key = null;
+		if (c.pure) {
+			memo = vm.memos.of(c, c.name);
+			key = Memo.key(argRefs, argNums, 0, argc);
+			Object o = memo.get(key);
+			if (o != null) {
+				o = Memo.value(o);
+				num = Value.num(o);
+				return Value.ref(o);
+			}
+		}
+
+		Object o;
+		if (nested < MAX_NESTED && hot(c)) {
+			nested++;
+			o = c.jit.run(this);
+			nested--;
+		} else {
+			o = vm.invoke(c, argRefs, argNums, argc);
+			num = vm.retNum();
+		}
+		if (memo != null)
+			memo.put(key, Value.box(o, num));
+		return o;
+	}
+
+	// Which functions were promoted, and how busy each one was
+	String report() {
+		StringBuilder sb = new StringBuilder("JIT: " + promoted()
+				+ " of " + functs.length + " functions compiled");
+		for (Chunk c : functs) {
+			sb.append("\n  " + c.name + ": calls " + c.calls + ", loops "
+					+ c.loops);
+			if (c.jit != null)
+				sb.append(", compiled #" + c.promoted);
+			else if (c.noJit)
+				sb.append(", not supported");
+		}
+		return sb.toString();
+	}
+
+	private int promoted() {
+		int n = 0;
+		for (Chunk c : functs) {
+			if (c.jit != null)
+				n++;
+		}
+		return n;
+	}
+
+	// Runs of the same Program share the chunks, one of them compiles a
+	// function and the others use it
+	private boolean compile(Chunk c) {
+		synchronized (functs) {
+			if (c.jit != null)
+				return true;
+			if (c.noJit)
+				return false;
+			return define(c);
+		}
+	}
+
+	private boolean define(Chunk c) {
+		try {
+			byte[] bytes = new Writer(c, functs, consts).bytes();
+			if (bytes == null) {
+				c.noJit = true;
+				return false;
+			}
+
+			MethodHandles.Lookup h = MethodHandles.lookup()
+					.defineHiddenClass(bytes, true);
+			c.promoted = promoted() + 1;
+			c.jit = (Code) h.findConstructor(h.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+			return true;
+		} catch (Throwable exc) {
+			c.noJit = true; // stays in the VM
+			return false;
+		}
+	}
+
+	//
+	//
+	//
+	// ***************************CLASS WRITER*******************************
+	//
+	//
+	//
+
+	// JVM opcodes used
+	private static final int ACONST_NULL = 0x01;
+	private static final int ICONST_0 = 0x03;
+	private static final int DCONST_0 = 0x0e;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD = 0x19;
+	private static final int DALOAD = 0x31;
+	private static final int AALOAD = 0x32;
+	private static final int DSTORE = 0x39;
+	private static final int ASTORE = 0x3a;
+	private static final int POP = 0x57;
+	private static final int POP2 = 0x58;
+	private static final int DUP_X2 = 0x5b;
+	private static final int IFEQ = 0x99;
+	private static final int GOTO = 0xa7;
+	private static final int ARETURN = 0xb0;
+	private static final int RETURN = 0xb1;
+	private static final int GETSTATIC = 0xb2;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static final int MAX_ARGS = 4; // call0 to call4
+	private static final int MAX_SLOTS = 84; // 3 JVM locals each, below 256
+
+	private static final String JIT = "interpret/Jit";
+	private static final String OBJ = "Ljava/lang/Object;";
+	private static final String VAL = OBJ + "D"; // a ref and its number
+	private static final String RT = "L" + JIT + ";";
+	private static final String RUN = "(" + RT + ")" + OBJ;
+
+	// One class with a run method for one chunk. Slot s of the chunk is
+	// JVM local 2 + 3s (the ref) and 3 + 3s (the number).
+	private static class Writer {
+		private Chunk c;
+		private Chunk[] functs;
+		private Object[] consts;
+
+		private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private DataOutputStream pool = new DataOutputStream(poolBytes);
+		private HashMap<String, Integer> poolIdx = new HashMap<String, Integer>();
+		private int poolSize = 1;
+
+		private byte[] code = new byte[256];
+		private int len;
+
+		Writer(Chunk ch, Chunk[] f, Object[] k) {
+			c = ch;
+			functs = f;
+			consts = k;
+		}
+
+		// The class file, null if the chunk has something not handled
+		byte[] bytes() throws IOException {
+			if (c.nLocals > MAX_SLOTS)
+				return null;
+
+			int thisCls = cls("interpret/JitCode");
+			int superCls = cls("java/lang/Object");
+			int codeIfc = cls("interpret/Jit$Code");
+			int initName = utf8("<init>");
+			int initDesc = utf8("()V");
+			int objInit = method("java/lang/Object", "<init>", "()V");
+			int runName = utf8("run");
+			int runDesc = utf8(RUN);
+			int codeAttr = utf8("Code");
+			int mapAttr = utf8("StackMapTable");
+
+			// Constructor
+			u1(0x2a); // aload_0
+			u1(INVOKESPECIAL);
+			u2(objInit);
+			u1(RETURN);
+			byte[] init = Arrays.copyOf(code, len);
+
+			len = 0;
+			byte[] frames = translate();
+			if (frames == null || len > 32767)
+				return null;
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DataOutputStream d = new DataOutputStream(out);
+
+			d.writeInt(0xCAFEBABE);
+			d.writeShort(0);
+			d.writeShort(52); // Java 8 class file, with stack maps
+			d.writeShort(poolSize);
+			d.write(poolBytes.toByteArray());
+			d.writeShort(0x0030); // final super
+			d.writeShort(thisCls);
+			d.writeShort(superCls);
+			d.writeShort(1);
+			d.writeShort(codeIfc);
+			d.writeShort(0); // fields
+			d.writeShort(2); // methods
+
+			d.writeShort(0x0001); // public <init>
+			d.writeShort(initName);
+			d.writeShort(initDesc);
+			d.writeShort(1);
+			d.writeShort(codeAttr);
+			d.writeInt(12 + init.length);
+			d.writeShort(1);
+			d.writeShort(1);
+			d.writeInt(init.length);
+			d.write(init);
+			d.writeShort(0);
+			d.writeShort(0);
+
+			d.writeShort(0x0001); // public run
+			d.writeShort(runName);
+			d.writeShort(runDesc);
+			d.writeShort(1);
+			d.writeShort(codeAttr);
+			int mapLen = frames.length > 2 ? 6 + frames.length : 0;
+			d.writeInt(12 + len + mapLen);
+			d.writeShort(c.maxStack * 3 + 6);
+			d.writeShort(2 + 3 * c.nLocals);
+			d.writeInt(len);
+			d.write(code, 0, len);
+			d.writeShort(0); // no exception table
+			if (mapLen > 0) {
+				d.writeShort(1);
+				d.writeShort(mapAttr);
+				d.writeInt(frames.length);
+				d.write(frames);
+			} else
+				d.writeShort(0);
+
+			d.writeShort(0); // class attributes
+			return out.toByteArray();
+		}
+
+		// Write run's code, returns the StackMapTable body
+		private byte[] translate() throws IOException {
+			int[] cd = c.code;
+			int[] start = new int[c.size + 1]; // JVM offset of each chunk pc
+			TreeSet<Integer> targets = new TreeSet<Integer>(); // chunk pcs
+			ArrayList<int[]> jumps = new ArrayList<int[]>();
+
+			// Locals: this, rt, then the chunk's slots
+			for (int i = 0; i < c.nLocals; i++) {
+				if (i < c.nParams) {
+					u1(0x2b); // aload_1
+					u1(GETFIELD);
+					u2(field(JIT, "argRefs", "[" + OBJ));
+					push(i);
+					u1(AALOAD);
+					u1(ASTORE);
+					u1(2 + 3 * i);
+					u1(0x2b);
+					u1(GETFIELD);
+					u2(field(JIT, "argNums", "[D"));
+					push(i);
+					u1(DALOAD);
+				} else {
+					u1(ACONST_NULL);
+					u1(ASTORE);
+					u1(2 + 3 * i);
+					u1(DCONST_0);
+				}
+				u1(DSTORE);
+				u1(3 + 3 * i);
+			}
+
+			int pc = 0;
+			while (pc < c.size) {
+				int op = cd[pc];
+				int line = c.lines[pc];
+				start[pc] = len;
+
+				switch (op) {
+				case Chunk.CONST:
+					if (!constant(consts[cd[pc + 1]]))
+						return null;
+					break;
+				case Chunk.LOAD:
+					u1(ALOAD);
+					u1(2 + 3 * cd[pc + 1]);
+					push(line);
+					invoke(INVOKESTATIC, "var", "(" + OBJ + "I)" + OBJ);
+					u1(DLOAD);
+					u1(3 + 3 * cd[pc + 1]);
+					break;
+				case Chunk.STORE:
+					u1(DSTORE);
+					u1(3 + 3 * cd[pc + 1]);
+					u1(ASTORE);
+					u1(2 + 3 * cd[pc + 1]);
+					break;
+				case Chunk.GLOAD:
+					u1(0x2b);
+					push(cd[pc + 1]);
+					push(line);
+					invoke(INVOKEVIRTUAL, "gload", "(II)" + OBJ);
+					num();
+					break;
+				case Chunk.GSTORE:
+					push(cd[pc + 1]);
+					u1(0x2b);
+					invoke(INVOKESTATIC, "gstore", "(" + VAL + "I" + RT + ")V");
+					break;
+				case Chunk.POP:
+					u1(POP2);
+					u1(POP);
+					break;
+				case Chunk.ADD:
+				case Chunk.SUB:
+				case Chunk.MUL:
+				case Chunk.DIV:
+				case Chunk.MOD:
+				case Chunk.POW:
+					u1(0x2b);
+					push(line);
+					invoke(INVOKESTATIC, Chunk.names[op], "(" + VAL + VAL + RT
+							+ "I)" + OBJ);
+					num();
+					break;
+				case Chunk.NEG:
+				case Chunk.NOT:
+					u1(0x2b);
+					push(line);
+					invoke(INVOKESTATIC, Chunk.names[op], "(" + VAL + RT + "I)"
+							+ OBJ);
+					num();
+					break;
+				case Chunk.REL:
+				case Chunk.LOGIC:
+					push(cd[pc + 1]);
+					push(line);
+					invoke(INVOKESTATIC, Chunk.names[op], "(" + VAL + VAL
+							+ "II)" + OBJ);
+					u1(DCONST_0);
+					break;
+				case Chunk.JFALSE:
+					u1(POP2);
+					push(line);
+					invoke(INVOKESTATIC, "test", "(" + OBJ + "I)Z");
+					jumps.add(new int[] { len, pc + 2 + cd[pc + 1] });
+					u1(IFEQ);
+					u2(0);
+					targets.add(pc + 2 + cd[pc + 1]);
+					break;
+				case Chunk.JUMP:
+				case Chunk.LOOP:
+					if (op == Chunk.LOOP) { // an interrupted run stops
+						push(line);
+						invoke(INVOKESTATIC, "poll", "(I)V");
+					}
+					jumps.add(new int[] { len, pc + 2 + cd[pc + 1] });
+					u1(GOTO);
+					u2(0);
+					targets.add(pc + 2 + cd[pc + 1]);
+					targets.add(pc + 2); // nothing falls into it
+					break;
+				case Chunk.CALL:
+				case Chunk.TAILCALL:
+					int argc = cd[pc + 2];
+					if (op == Chunk.TAILCALL && functs[cd[pc + 1]] == c) {
+						selfCall(argc, line);
+						jumps.add(new int[] { len, 0 });
+						u1(GOTO);
+						u2(0);
+						targets.add(0);
+
+						// The RET after it is never reached
+						start[pc + 3] = len;
+						targets.add(pc + 4);
+						pc++;
+						break;
+					}
+					if (argc > MAX_ARGS)
+						return null;
+					u1(0x2b);
+					push(cd[pc + 1]);
+					push(line);
+					String desc = "(";
+					for (int i = 0; i < argc; i++)
+						desc += VAL;
+					invoke(INVOKESTATIC, "call" + argc, desc + RT + "II)" + OBJ);
+					num();
+					break;
+				case Chunk.RET:
+					u1(0x2b); // the number goes in rt.num
+					u1(DUP_X2);
+					u1(POP);
+					u1(PUTFIELD);
+					u2(field(JIT, "num", "D"));
+					u1(ARETURN);
+					targets.add(pc + 1);
+					break;
+				case Chunk.RETNONE:
+					u1(ACONST_NULL);
+					u1(ARETURN);
+					targets.add(pc + 1);
+					break;
+				case Chunk.PRINT:
+					push(cd[pc + 1]);
+					u1(0x2b);
+					invoke(INVOKESTATIC, "print", "(" + VAL + "I" + RT + ")V");
+					break;
+				case Chunk.PRINTLN:
+					u1(0x2b);
+					invoke(INVOKEVIRTUAL, "println", "()V");
+					break;
+				case Chunk.INPUT:
+					u1(0x2b);
+					push(cd[pc + 1]);
+					push(line);
+					invoke(INVOKEVIRTUAL, "input", "(II)" + OBJ);
+					num();
+					break;
+				default: // ERROR and HALT stay in the VM
+					return null;
+				}
+
+				pc += 1 + Chunk.operands[op];
+			}
+			start[c.size] = len;
+
+			for (int[] j : jumps) {
+				int off = start[j[1]] - j[0];
+				code[j[0] + 1] = (byte) (off >> 8);
+				code[j[0] + 2] = (byte) off;
+			}
+
+			// Every target has an empty stack and all slots set
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DataOutputStream d = new DataOutputStream(out);
+			int objCls = cls("java/lang/Object");
+			int jitCls = cls(JIT);
+			int last = -1;
+			int count = 0;
+
+			d.writeShort(0); // number of frames, set below
+			for (int t : targets) {
+				if (t >= c.size || start[t] == last)
+					continue;
+				d.writeByte(255); // full frame
+				d.writeShort(last < 0 ? start[t] : start[t] - last - 1);
+				d.writeShort(2 + 2 * c.nLocals);
+				d.writeByte(7);
+				d.writeShort(objCls);
+				d.writeByte(7);
+				d.writeShort(jitCls);
+				for (int i = 0; i < c.nLocals; i++) {
+					d.writeByte(7);
+					d.writeShort(objCls);
+					d.writeByte(3); // double
+				}
+				d.writeShort(0); // empty stack
+				last = start[t];
+				count++;
+			}
+
+			byte[] frames = out.toByteArray();
+			frames[0] = (byte) (count >> 8);
+			frames[1] = (byte) count;
+			return frames;
+		}
+
+		// return f(...) in f: the arguments on the stack become the
+		// parameters, the other slots are unset again, and the jump back
+		// to the start checks for an interrupt like a loop
+		private void selfCall(int argc, int line) throws IOException {
+			for (int i = argc - 1; i >= 0; i--) {
+				u1(DSTORE);
+				u1(3 + 3 * i);
+				u1(ASTORE);
+				u1(2 + 3 * i);
+			}
+			for (int i = argc; i < c.nLocals; i++) {
+				u1(ACONST_NULL);
+				u1(ASTORE);
+				u1(2 + 3 * i);
+				u1(DCONST_0);
+				u1(DSTORE);
+				u1(3 + 3 * i);
+			}
+			push(line);
+			invoke(INVOKESTATIC, "poll", "(I)V");
+		}
+
+		// Push a constant's ref and number
+		private boolean constant(Object o) throws IOException {
+			if (o instanceof Number) {
+				u1(GETSTATIC);
+				u2(field("interpret/Value", o instanceof Long ? "INT" : "NUM",
+						"Linterpret/Value;"));
+				u1(LDC2_W);
+				if (o instanceof Long) { // its bits, see Value
+					u2(lng((long) o));
+					u1(INVOKESTATIC);
+					u2(method("java/lang/Double", "longBitsToDouble", "(J)D"));
+				} else
+					u2(dbl((double) o));
+			} else if (o instanceof Boolean) {
+				u1(GETSTATIC);
+				u2(field("java/lang/Boolean", (boolean) o ? "TRUE" : "FALSE",
+						"Ljava/lang/Boolean;"));
+				u1(DCONST_0);
+			} else if (o instanceof String && ((String) o).length() < 8192) {
+				u1(LDC_W);
+				u2(string((String) o));
+				u1(DCONST_0);
+			} else
+				return false;
+			return true;
+		}
+
+		// The number a helper left in rt.num
+		private void num() throws IOException {
+			u1(0x2b);
+			u1(GETFIELD);
+			u2(field(JIT, "num", "D"));
+		}
+
+		private void push(int v) throws IOException {
+			if (v >= -1 && v <= 5)
+				u1(ICONST_0 + v);
+			else if (v >= -128 && v <= 127) {
+				u1(BIPUSH);
+				u1(v);
+			} else if (v >= -32768 && v <= 32767) {
+				u1(SIPUSH);
+				u2(v);
+			} else {
+				u1(LDC_W);
+				u2(integer(v));
+			}
+		}
+
+		private void invoke(int op, String name, String desc)
+				throws IOException {
+			u1(op);
+			u2(method(JIT, name, desc));
+		}
+
+		private void u1(int b) {
+			if (len + 3 > code.length)
+				code = Arrays.copyOf(code, code.length * 2);
+			code[len++] = (byte) b;
+		}
+
+		private void u2(int v) {
+			u1(v >> 8);
+			u1(v);
+		}
+
+		// Constant pool entries, each added once
+
+		private int utf8(String s) throws IOException {
+			Integer i = poolIdx.get("U" + s);
+			if (i != null)
+				return i;
+			pool.writeByte(1);
+			pool.writeUTF(s);
+			poolIdx.put("U" + s, poolSize);
+			return poolSize++;
+		}
+
+		private int integer(int v) throws IOException {
+			Integer i = poolIdx.get("I" + v);
+			if (i != null)
+				return i;
+			pool.writeByte(3);
+			pool.writeInt(v);
+			poolIdx.put("I" + v, poolSize);
+			return poolSize++;
+		}
+
+		private int dbl(double v) throws IOException {
+			String key = "D" + Double.doubleToRawLongBits(v);
+			Integer i = poolIdx.get(key);
+			if (i != null)
+				return i;
+			pool.writeByte(6);
+			pool.writeDouble(v);
+			poolIdx.put(key, poolSize);
+			poolSize += 2; // a double takes two entries
+			return poolSize - 2;
+		}
+
+		private int lng(long v) throws IOException {
+			String key = "J" + v;
+			Integer i = poolIdx.get(key);
+			if (i != null)
+				return i;
+			pool.writeByte(5);
+			pool.writeLong(v);
+			poolIdx.put(key, poolSize);
+			poolSize += 2; // a long takes two entries
+			return poolSize - 2;
+		}
+
+		private int string(String s) throws IOException {
+			Integer i = poolIdx.get("S" + s);
+			if (i != null)
+				return i;
+			int u = utf8(s);
+			pool.writeByte(8);
+			pool.writeShort(u);
+			poolIdx.put("S" + s, poolSize);
+			return poolSize++;
+		}
+
+		private int cls(String name) throws IOException {
+			Integer i = poolIdx.get("C" + name);
+			if (i != null)
+				return i;
+			int n = utf8(name);
+			pool.writeByte(7);
+			pool.writeShort(n);
+			poolIdx.put("C" + name, poolSize);
+			return poolSize++;
+		}
+
+		private int ref(int tag, String owner, String name, String desc)
+				throws IOException {
+			String key = "R" + tag + owner + "." + name + desc;
+			Integer i = poolIdx.get(key);
+			if (i != null)
+				return i;
+
+			int o = cls(owner);
+			int n = utf8(name);
+			int t = utf8(desc);
+			pool.writeByte(12); // name and type
+			pool.writeShort(n);
+			pool.writeShort(t);
+			int nt = poolSize++;
+
+			pool.writeByte(tag);
+			pool.writeShort(o);
+			pool.writeShort(nt);
+			poolIdx.put(key, poolSize);
+			return poolSize++;
+		}
+
+		private int method(String owner, String name, String desc)
+				throws IOException {
+			return ref(10, owner, name, desc);
+		}
+
+		private int field(String owner, String name, String desc)
+				throws IOException {
+			return ref(9, owner, name, desc);
+		}
+	}
+
+	//
+	//
+	//
+	// **************** Called by compiled code***********************************
+	//
+	//
+	//
+
+	// Helpers that give a value return its ref and leave its number in
+	// rt.num
+
+	static Object var(Object o, int line) throws InterpreterException {
+		if (o == null)
+			throw Ops.error(Edit.NOTAVAR, line);
+		return o;
+	}
+
+	static Object add(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = ln + rn;
+			return l;
+		}
+		return binary('+', l, ln, r, rn, rt, line);
+	}
+
+	static Object sub(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = ln - rn;
+			return l;
+		}
+		return binary('-', l, ln, r, rn, rt, line);
+	}
+
+	static Object mul(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = ln * rn;
+			return l;
+		}
+		return binary('*', l, ln, r, rn, rt, line);
+	}
+
+	static Object div(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = Ops.arith('/', ln, rn, line);
+			return l;
+		}
+		return binary('/', l, ln, r, rn, rt, line);
+	}
+
+	static Object mod(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = Ops.arith('%', ln, rn, line);
+			return l;
+		}
+		return binary('%', l, ln, r, rn, rt, line);
+	}
+
+	static Object pow(Object l, double ln, Object r, double rn, Jit rt,
+			int line) throws InterpreterException {
+		if (l == Value.NUM && r == Value.NUM) {
+			rt.num = Ops.power(ln, rn);
+			return l;
+		}
+		return binary('^', l, ln, r, rn, rt, line);
+	}
+
+	static Object neg(Object o, double n, Jit rt, int line)
+			throws InterpreterException {
+		if (o == Value.NUM) {
+			rt.num = -n;
+			return o;
+		}
+		if (o == Value.INT && Value.whole(n) != Long.MIN_VALUE) {
+			rt.num = Value.bits(-Value.whole(n));
+			return o;
+		}
+		return unary('-', o, n, rt, line);
+	}
+
+	static Object not(Object o, double n, Jit rt, int line)
+			throws InterpreterException {
+		if (o instanceof Boolean)
+			return Value.bool(o == Boolean.FALSE);
+		return unary(Edit.BOOL_OP + Edit.NOT, o, n, rt, line);
+	}
+
+	// Comparisons and logic give a boolean, no number
+
+	static Object rel(Object l, double ln, Object r, double rn, int op,
+			int line) throws InterpreterException {
+		if (Value.isNum(l) && Value.isNum(r))
+			return Value.bool(Ops.compare(op, l, ln, r, rn));
+		return Value.ref(slow(op, l, ln, r, rn, line));
+	}
+
+	static Object logic(Object l, double ln, Object r, double rn, int op,
+			int line) throws InterpreterException {
+		if (l instanceof Boolean && r instanceof Boolean)
+			return Value.bool(Ops.logic(op, (boolean) l, (boolean) r));
+		return Value.ref(slow(op, l, ln, r, rn, line));
+	}
+
+	static boolean test(Object o, int line) throws InterpreterException {
+		if (o == Boolean.TRUE)
+			return true;
+		if (o != Boolean.FALSE)
+			throw Ops.error(Edit.NOTABOOL, line);
+		return false;
+	}
+
+	private static Object binary(int op, Object l, double ln, Object r,
+			double rn, Jit rt, int line) throws InterpreterException {
+		if (l == Value.INT && r == Value.INT) {
+			try {
+				rt.num = Value.bits(Ops.whole(op, Value.whole(ln),
+						Value.whole(rn), line));
+				return l;
+			} catch (ArithmeticException exc) {
+				// in doubles
+			}
+		}
+		if (Value.isNum(l) && Value.isNum(r)) {
+			rt.num = Ops.arith(op, Value.dbl(l, ln), Value.dbl(r, rn), line);
+			return Value.NUM;
+		}
+		Object o = slow(op, l, ln, r, rn, line);
+		rt.num = Value.num(o);
+		return Value.ref(o);
+	}
+
+	private static Object slow(int op, Object l, double ln, Object r,
+			double rn, int line) throws InterpreterException {
+		if (l == null || r == null) // function that returned nothing
+			throw Ops.error(Edit.INVALIDEXP, line);
+		return Ops.binary(op, Value.box(l, ln), Value.box(r, rn), line);
+	}
+
+	private static Object unary(int op, Object o, double n, Jit rt, int line)
+			throws InterpreterException {
+		if (o == null)
+			throw Ops.error(Edit.INVALIDEXP, line);
+		o = Ops.unary(op, Value.box(o, n), line);
+		rt.num = Value.num(o);
+		return Value.ref(o);
+	}
+
+	// Calls put their arguments in rt.argRefs and rt.argNums
+
+	static Object call0(Jit rt, int f, int line) throws InterpreterException {
+		return rt.call(f, 0, line);
+	}
+
+	static Object call1(Object a, double an, Jit rt, int f, int line)
+			throws InterpreterException {
+		rt.argRefs[0] = a;
+		rt.argNums[0] = an;
+		return rt.call(f, 1, line);
+	}
+
+	static Object call2(Object a, double an, Object b, double bn, Jit rt,
+			int f, int line) throws InterpreterException {
+		rt.argRefs[0] = a;
+		rt.argNums[0] = an;
+		rt.argRefs[1] = b;
+		rt.argNums[1] = bn;
+		return rt.call(f, 2, line);
+	}
+
+	static Object call3(Object a, double an, Object b, double bn, Object c,
+			double cn, Jit rt, int f, int line) throws InterpreterException {
+		rt.argRefs[0] = a;
+		rt.argNums[0] = an;
+		rt.argRefs[1] = b;
+		rt.argNums[1] = bn;
+		rt.argRefs[2] = c;
+		rt.argNums[2] = cn;
+		return rt.call(f, 3, line);
+	}
+
+	static Object call4(Object a, double an, Object b, double bn, Object c,
+			double cn, Object d, double dn, Jit rt, int f, int line)
+			throws InterpreterException {
+		rt.argRefs[0] = a;
+		rt.argNums[0] = an;
+		rt.argRefs[1] = b;
+		rt.argNums[1] = bn;
+		rt.argRefs[2] = c;
+		rt.argNums[2] = cn;
+		rt.argRefs[3] = d;
+		rt.argNums[3] = dn;
+		return rt.call(f, 4, line);
+	}
+
+	Object gload(int slot, int line) throws InterpreterException {
+		num = vm.globalNum(slot);
+		return var(vm.globalRef(slot), line);
+	}
+
+	// Backward jumps, so an interrupted run stops
+	static void poll(int line) throws InterpreterException {
+		Ops.poll(line);
+	}
+
+	static void gstore(Object o, double n, int slot, Jit rt) {
+		rt.vm.setGlobal(slot, o, n);
+	}
+
+	static void print(Object o, double n, int sep, Jit rt) {
+		rt.vm.print(o, n, sep);
+	}
+
+	void println() {
+		vm.println();
+	}
+
+	Object input(int k, int line) throws InterpreterException {
+		Object o = vm.input(k, line);
+		num = Value.num(o);
+		return Value.ref(o);
+	}
+}
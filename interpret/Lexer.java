@@ -0,0 +1,341 @@
+package interpret;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import interpret.Edit.InterpreterException;
+
+// Splits a whole program into tokens once, when it is loaded. Running a loop
+// body again only walks these int tables instead of re-reading characters.
+class Lexer {
+
+	// One entry per token
+	int[] type; // item type from Edit (NUMBER, STRING, COMMAND, ...)
+	int[] code; // command code for COMMAND, operator code for DELIMITER
+	int[] cons; // index into the constant tables below
+	int[] line; // source line of the token
+	int size; // number of tokens, the last one is always EOP
+	int[] skip; // else or end a skip from this token lands on, see blocks
+
+	// Constant tables, equal tokens share an entry
+	String[] text; // the token as written (string literals without quotes)
+	String[] key; // lower case text, used for function names
+	Object[] value; // Double, Long, Boolean or String for literals, else null
+	int[] lower; // constant written as key, -1 if the program has none
+	int consSize;
+
+	private char[] prog;
+	private int len;
+	private int idx;
+	private int ln;
+
+	private HashMap<String, Integer> consIdx;
+	private int[] wordType; // token type of a word constant, 0 until seen
+	private int[] wordCode;
+	private int[] delims; // constant of each one char operator, plus one
+	private int blank = -1; // constant of EOL and EOP
+
+	// Tables filled in by Cache
+	Lexer() {
+	}
+
+	// Tokens of the chars from start up to end
+	public Lexer(char[] p, int start, int end) throws InterpreterException {
+		prog = p;
+		idx = start;
+		len = end;
+
+		type = new int[256];
+		code = new int[256];
+		cons = new int[256];
+		line = new int[256];
+
+		text = new String[64];
+		key = new String[64];
+		value = new Object[64];
+		consIdx = new HashMap<String, Integer>();
+		wordType = new int[64];
+		wordCode = new int[64];
+		delims = new int[128];
+
+		lex();
+		blocks();
+
+		lower = new int[consSize];
+		for (int k = 0; k < consSize; k++) {
+			Integer i = consIdx.get(key[k]);
+			lower[k] = i == null ? -1 : i;
+		}
+
+		// Only the tables are needed from now on
+		prog = null;
+		consIdx = null;
+		wordType = null;
+		wordCode = null;
+	}
+
+	private void lex() throws InterpreterException {
+		char ch;
+		ln = 1;
+
+		while (true) {
+			// Skip over white space.
+			while (idx < len && isSpace(prog[idx]))
+				idx++;
+
+			// Check for end of program.
+			if (idx >= len) {
+				add(Edit.EOP, 0, blank());
+				return;
+			}
+
+			ch = prog[idx];
+
+			// Check for end of line
+			if (ch == '\n') {
+				add(Edit.EOL, 0, blank());
+				idx++;
+				ln++;
+				continue;
+			}
+
+			// Check for comment tag, the new line ends it
+			if (ch == '#') {
+				while (idx < len && prog[idx] != '\n')
+					idx++;
+				continue;
+			}
+
+			// Relational operators
+			if (ch == '<' || ch == '>' || ch == '=') {
+				boolean twoChars = idx + 1 < len && prog[idx + 1] == '=';
+				int op = ch;
+				String str = String.valueOf(ch);
+
+				if (twoChars) {
+					switch (ch) {
+					case '<':
+						op = Edit.LE;
+						break;
+					case '>':
+						op = Edit.GE;
+						break;
+					case '=':
+						op = Edit.EQ;
+						break;
+					}
+					str += "=";
+					idx += 2;
+				} else
+					idx++;
+
+				add(Edit.DELIMITER, op, constant(str, null, str));
+				continue;
+			}
+
+			if (isDelim(ch)) { // Is an operator.
+				if (delims[ch] == 0) {
+					String str = String.valueOf(ch);
+					delims[ch] = constant(str, null, str) + 1;
+				}
+				add(Edit.DELIMITER, ch, delims[ch] - 1);
+				idx++;
+				continue;
+			}
+
+			if (ch == '"') { // Is string
+				int start = ++idx;
+				while (idx < len && prog[idx] != '"' && prog[idx] != '\n')
+					idx++;
+
+				if (idx >= len || prog[idx] == '\n') // no second "
+					error(Edit.MISSQUOTE);
+
+				String str = new String(prog, start, idx - start);
+				idx++; // Skip second "
+				add(Edit.STRING, 0, constant("\"" + str, str, str));
+				continue;
+			}
+
+			// Is number or word
+			int start = idx;
+			while (idx < len && !isDelim(prog[idx]) && !isSpace(prog[idx])
+					&& prog[idx] != '\n' && prog[idx] != '"')
+				idx++;
+
+			word(new String(prog, start, idx - start));
+		}
+	}
+
+	// Sort out a word: number, boolean, operator, command or name. Each
+	// different word is only sorted out once.
+	private void word(String str) throws InterpreterException {
+		Integer k = consIdx.get(str);
+		if (k != null && wordType[k] != 0) {
+			add(wordType[k], wordCode[k], k);
+			return;
+		}
+
+		int at = size;
+		sort(str);
+		wordType[cons[at]] = type[at];
+		wordCode[cons[at]] = code[at];
+	}
+
+	private void sort(String str) throws InterpreterException {
+		String lower = str.toLowerCase();
+		int i;
+
+		if (isNumber(str)) {
+			try {
+				add(Edit.NUMBER, 0, constant(str, Ops.number(str), lower));
+			} catch (NumberFormatException exc) {
+				error(Edit.NOTANUMB);
+			}
+			return;
+		}
+
+		if (lower.equals("true") || lower.equals("false")) {
+			add(Edit.BOOLEAN, 0,
+					constant(str, Boolean.valueOf(lower.equals("true")), lower));
+			return;
+		}
+
+		// Bool Op
+		for (i = 0; i < Edit.bOps.length; i++) {
+			if (Edit.bOps[i].equals(lower)) {
+				add(Edit.DELIMITER, Edit.BOOL_OP + Edit.bOpsId[i],
+						constant(str, null, lower));
+				return;
+			}
+		}
+
+		// Command
+		for (i = 1; i < Edit.commTable.length; i++) {
+			if (Edit.commTable[i].equals(lower)) {
+				add(Edit.COMMAND, i, constant(str, null, lower));
+				return;
+			}
+		}
+
+		// Variable or function, decided when it is read
+		add(Edit.VARIABLE, 0, constant(str, null, lower));
+	}
+
+	private void add(int t, int c, int k) {
+		if (size == type.length) {
+			int n = size * 2;
+			type = Arrays.copyOf(type, n);
+			code = Arrays.copyOf(code, n);
+			cons = Arrays.copyOf(cons, n);
+			line = Arrays.copyOf(line, n);
+		}
+		type[size] = t;
+		code[size] = c;
+		cons[size] = k;
+		line[size] = ln;
+		size++;
+	}
+
+	// Index of a constant, adding it the first time it is seen
+	private int constant(String id, Object val, String lower) {
+		Integer k = consIdx.get(id);
+		if (k != null)
+			return k;
+
+		if (consSize == text.length) {
+			int n = consSize * 2;
+			text = Arrays.copyOf(text, n);
+			key = Arrays.copyOf(key, n);
+			value = Arrays.copyOf(value, n);
+			wordType = Arrays.copyOf(wordType, n);
+			wordCode = Arrays.copyOf(wordCode, n);
+		}
+		text[consSize] = val instanceof String ? (String) val : id;
+		key[consSize] = lower;
+		value[consSize] = val;
+		consIdx.put(id, consSize);
+		return consSize++;
+	}
+
+	// Skipping a block (a false if, a loop that runs zero times, a function
+	// being defined) starts inside it and stops at the first else or end
+	// of that block. Worked out here for every token, from the back: cur is
+	// that else or end for the block being read and outer the ones of the
+	// blocks around it.
+	private void blocks() throws InterpreterException {
+		skip = new int[size];
+		int[] outer = new int[16];
+		int depth = 0;
+		int cur = -1; // none at the top level
+
+		for (int i = size - 1; i >= 0; i--) {
+			if (is(i, Edit.END)) {
+				if (depth == outer.length)
+					outer = Arrays.copyOf(outer, depth * 2);
+				outer[depth++] = cur;
+				cur = i;
+			} else if (is(i, Edit.ELSE)) {
+				if (depth == 0)
+					error(Edit.UNEXPITEM, i); // else with no if
+				cur = i;
+			} else if (opens(i)) {
+				if (depth == 0)
+					error(Edit.ENDEXPECTED, i);
+				cur = outer[--depth]; // the opener is outside its block
+			}
+			skip[i] = cur;
+		}
+
+		// An end that closes nothing, the first one is reported
+		for (int i = 0, open = 0; depth > 0; i++) {
+			if (opens(i))
+				open++;
+			else if (is(i, Edit.END) && open-- == 0)
+				error(Edit.UNEXPITEM, i);
+		}
+	}
+
+	// Starts a block, an if right after an else does not
+	private boolean opens(int i) {
+		return is(i, Edit.IF) && !(i > 0 && is(i - 1, Edit.ELSE))
+				|| is(i, Edit.FOR) || is(i, Edit.WHILE) || is(i, Edit.FUNCTION);
+	}
+
+	private boolean is(int i, int command) {
+		return type[i] == Edit.COMMAND && code[i] == command;
+	}
+
+	private int blank() {
+		if (blank < 0)
+			blank = constant(" ", null, " ");
+		return blank;
+	}
+
+	private void error(int err, int i) throws InterpreterException {
+		ln = line[i];
+		error(err);
+	}
+
+	private void error(int err) throws InterpreterException {
+		throw new InterpreterException(err, Edit.errStr[err] + ": " + idx
+				+ "\nLine number: " + ln);
+	}
+
+	private boolean isDelim(char c) {
+		return ",<>+-/*%^=();#".indexOf(c) != -1;
+	}
+
+	// Carriage returns are skipped so \r\n and \n both end a line
+	private boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private boolean isNumber(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			if (!Character.isDigit(str.charAt(i)) && str.charAt(i) != '.')
+				return false;
+		}
+		return true;
+	}
+}
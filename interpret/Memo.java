@@ -0,0 +1,110 @@
+package interpret;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Results of one pure function, keyed by the values of its arguments. Only
+// so many are kept (SIZE unless Edit.setMemoSize says otherwise), the one
+// used least recently goes first. Each run has its own, in a Table, so runs
+// sharing a Program share no results.
+class Memo {
+
+	static final int SIZE = 10000; // results kept per function, default
+
+	private static final Object NONE = new Object(); // returned nothing
+
+	final String name;
+	long hits;
+	long misses;
+	private LinkedHashMap<List<?>, Object> results;
+
+	Memo(String n, int max) {
+		name = n;
+		results = new LinkedHashMap<List<?>, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(
+					Map.Entry<List<?>, Object> e) {
+				return size() > max;
+			}
+		};
+	}
+
+	// The boxed arguments of a call
+	static List<Object> key(Object[] args, int n) {
+		Object[] a = new Object[n];
+		for (int i = 0; i < n; i++)
+			a[i] = text(args[i]);
+		return Arrays.asList(a);
+	}
+
+	// Arguments as the engines hold them, see Value
+	static List<Object> key(Object[] refs, double[] nums, int from, int n) {
+		Object[] a = new Object[n];
+		for (int i = 0; i < n; i++)
+			a[i] = text(Value.box(refs[from + i], nums[from + i]));
+		return Arrays.asList(a);
+	}
+
+	// A Rope has no equals, its text does
+	private static Object text(Object o) {
+		return o instanceof Rope ? o.toString() : o;
+	}
+
+	// The boxed result, NONE for none, null when not kept. Give it to
+	// value() before using it.
+	Object get(List<?> key) {
+		Object o = results.get(key);
+		if (o == null)
+			misses++;
+		else
+			hits++;
+		return o;
+	}
+
+	void put(List<?> key, Object result) {
+		results.put(key, result == null ? NONE : result);
+	}
+
+	// What get() found, as the function returned it
+	static Object value(Object o) {
+		return o == NONE ? null : o;
+	}
+
+	public String toString() {
+		return name + ": " + hits + " hits, " + misses + " misses, "
+				+ results.size() + " kept";
+	}
+
+	// The memos of one run, one per pure function
+	static class Table {
+		private int size;
+		private LinkedHashMap<Object, Memo> memos; // by function
+
+		Table(int s) {
+			size = s;
+			memos = new LinkedHashMap<Object, Memo>();
+		}
+
+		// Memo of a function, f is what the engine runs (a Chunk, a
+		// Node.Function, ...)
+		Memo of(Object f, String name) {
+			Memo m = memos.get(f);
+			if (m == null) {
+				m = new Memo(name, size);
+				memos.put(f, m);
+			}
+			return m;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder("Memo: " + memos.size()
+					+ " pure functions called");
+			for (Memo m : memos.values())
+				sb.append("\n  " + m);
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package interpret;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Numbers about all runs in this JVM, for operators: ALL is updated by
+// every Edit and Program and read with the getters or, after register(),
+// over JMX. Counters are LongAdders, each thread adds to its own cell, so
+// runs on many threads do not wait on each other. The engines count
+// statements, calls and input lines in plain fields of their run, which
+// are added here once, when it ends.
+class Metrics implements MetricsMXBean {
+
+	static final Metrics ALL = new Metrics();
+	static final String NAME = "interpret:type=Metrics";
+
+	// Run times in us go in buckets, SUB of them for each power of two, so
+	// a percentile is at most 1 / SUB off
+	private static final int SUB = 4;
+	private static final int BUCKETS = 64 * SUB;
+
+	private LongAdder loaded = new LongAdder();
+	private LongAdder running = new LongAdder();
+	private LongAdder runs = new LongAdder();
+	private LongAdder statements = new LongAdder();
+	private LongAdder calls = new LongAdder();
+	private LongAdder printed = new LongAdder();
+	private LongAdder inputs = new LongAdder();
+	private LongAdder nanos = new LongAdder();
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+	private LongAdder[] times = new LongAdder[BUCKETS];
+	private LongAdder[] errors = new LongAdder[Edit.UNKNOWN + 1];
+
+	private boolean registered; // guarded by the class
+
+	Metrics() {
+		for (int i = 0; i < times.length; i++)
+			times[i] = new LongAdder();
+		for (int i = 0; i < errors.length; i++)
+			errors[i] = new LongAdder();
+	}
+
+	// Shows ALL over JMX as NAME, false when it could not
+	static synchronized boolean register() {
+		if (!ALL.registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer()
+						.registerMBean(ALL, new ObjectName(NAME));
+			} catch (InstanceAlreadyExistsException exc) {
+				// another class loader got there first
+			} catch (JMException exc) {
+				return false;
+			}
+			ALL.registered = true;
+		}
+		return true;
+	}
+
+	void loaded() {
+		loaded.increment();
+	}
+
+	void started() {
+		running.increment();
+	}
+
+	// A run is over, error is its code, -1 for none
+	void ended(long time, long stats, long c, long in, long out, int error) {
+		running.decrement();
+		runs.increment();
+		statements.add(stats);
+		calls.add(c);
+		inputs.add(in);
+		printed.add(out);
+		nanos.add(time);
+		max.accumulate(time);
+		times[bucket(time / 1000)].increment();
+		if (error >= 0)
+			errors[error].increment();
+	}
+
+	// Bucket of us, the first SUB hold 0 to SUB - 1 and each power of two
+	// from there is cut in SUB
+	private static int bucket(long us) {
+		if (us < SUB)
+			return (int) us;
+		int bits = 63 - Long.numberOfLeadingZeros(us); // 2 or more
+		int sub = (int) (us >> (bits - 2)) & (SUB - 1);
+		return (bits - 1) * SUB + sub;
+	}
+
+	// Largest us in the bucket
+	private static long top(int b) {
+		if (b < SUB)
+			return b;
+		int bits = b / SUB + 1;
+		long low = (long) (SUB + b % SUB) << (bits - 2);
+		return low + (1L << (bits - 2)) - 1;
+	}
+
+	// Run time in ms that p percent of the runs took at most
+	double runTime(double p) {
+		long n = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			n += counts[i] = times[i].sum();
+		long rank = (long) Math.ceil(n * p / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0)
+				return Math.min(top(i) / 1e3, getRunTimeMax());
+		}
+		return 0;
+	}
+
+	public long getScriptsLoaded() {
+		return loaded.sum();
+	}
+
+	public long getRunsInProgress() {
+		return running.sum();
+	}
+
+	public long getRuns() {
+		return runs.sum();
+	}
+
+	public long getStatements() {
+		return statements.sum();
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getCharsPrinted() {
+		return printed.sum();
+	}
+
+	public long getInputLines() {
+		return inputs.sum();
+	}
+
+	public double getRunTimeMean() {
+		long n = runs.sum();
+		return n == 0 ? 0 : nanos.sum() / 1e6 / n;
+	}
+
+	public double getRunTimeP50() {
+		return runTime(50);
+	}
+
+	public double getRunTimeP90() {
+		return runTime(90);
+	}
+
+	public double getRunTimeP99() {
+		return runTime(99);
+	}
+
+	public double getRunTimeMax() {
+		return max.get() / 1e6;
+	}
+
+	public Map<String, Long> getErrors() {
+		TreeMap<String, Long> m = new TreeMap<String, Long>();
+		for (int i = 0; i < errors.length; i++) {
+			long n = errors[i].sum();
+			if (n > 0)
+				m.put(Edit.errStr[i], n);
+		}
+		return m;
+	}
+}
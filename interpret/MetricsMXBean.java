@@ -0,0 +1,36 @@
+package interpret;
+
+import java.util.Map;
+
+// What Metrics shows over JMX, as interpret:type=Metrics once
+// Metrics.register() was called. Times are in milliseconds.
+public interface MetricsMXBean {
+
+	long getScriptsLoaded();
+
+	long getRunsInProgress();
+
+	long getRuns(); // ended, with or without an error
+
+	// Run by the interp and tree engines, the VM has no statements
+	long getStatements();
+
+	long getCalls();
+
+	long getCharsPrinted();
+
+	long getInputLines();
+
+	double getRunTimeMean();
+
+	double getRunTimeP50();
+
+	double getRunTimeP90();
+
+	double getRunTimeP99();
+
+	double getRunTimeMax();
+
+	// Runs that ended with each error, by its text in Edit.errStr
+	Map<String, Long> getErrors();
+}
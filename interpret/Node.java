@@ -0,0 +1,209 @@
+package interpret;
+
+// Syntax tree of a program. The Parser builds it once from the tokens, the
+// Resolver numbers the variables and the TreeWalker runs it, so nothing is
+// parsed or looked up by name while running.
+abstract class Node {
+
+	// Node kinds, statements
+	static final int BLOCK = 0;
+	static final int PRINT = 1;
+	static final int INPUT = 2;
+	static final int IF = 3;
+	static final int FOR = 4;
+	static final int WHILE = 5;
+	static final int RETURN = 6;
+	static final int ASSIGN = 7;
+
+	// Node kinds, expressions (a call is also a statement)
+	static final int CONST = 8;
+	static final int VAR = 9;
+	static final int UNARY = 10;
+	static final int BINARY = 11;
+	static final int CALL = 12;
+
+	int kind;
+	int line; // source line, for errors
+
+	static class Block extends Node {
+		Node[] stats;
+
+		Block(Node[] s, int l) {
+			kind = BLOCK;
+			stats = s;
+			line = l;
+		}
+	}
+
+	static class Print extends Node {
+		Node[] exps;
+		int[] seps; // ',' ';' or 0 after each expression
+
+		Print(Node[] e, int[] s, int l) {
+			kind = PRINT;
+			exps = e;
+			seps = s;
+			line = l;
+		}
+	}
+
+	static class Input extends Node {
+		String prompt; // null asks with "? "
+		String name;
+		int slot; // set by the Resolver, as for Var
+		boolean global;
+
+		Input(String p, String n, int l) {
+			kind = INPUT;
+			prompt = p;
+			name = n;
+			line = l;
+		}
+	}
+
+	static class If extends Node {
+		Node[] conds; // the if and each else if
+		Block[] blocks;
+		Block elseBlock; // null without else
+
+		If(Node[] c, Block[] b, Block e, int l) {
+			kind = IF;
+			conds = c;
+			blocks = b;
+			elseBlock = e;
+			line = l;
+		}
+	}
+
+	static class For extends Node {
+		String name;
+		int slot; // set by the Resolver, as for Var
+		boolean global;
+		Node init, cond, step;
+		Block body;
+
+		For(String n, Node i, Node c, Node s, Block b, int l) {
+			kind = FOR;
+			name = n;
+			init = i;
+			cond = c;
+			step = s;
+			body = b;
+			line = l;
+		}
+	}
+
+	static class While extends Node {
+		Node cond;
+		Block body;
+
+		While(Node c, Block b, int l) {
+			kind = WHILE;
+			cond = c;
+			body = b;
+			line = l;
+		}
+	}
+
+	static class Return extends Node {
+		Node exp; // null returns nothing
+
+		Return(Node e, int l) {
+			kind = RETURN;
+			exp = e;
+			line = l;
+		}
+	}
+
+	static class Assign extends Node {
+		String name;
+		int slot; // set by the Resolver, as for Var
+		boolean global;
+		Node exp;
+
+		Assign(String n, Node e, int l) {
+			kind = ASSIGN;
+			name = n;
+			exp = e;
+			line = l;
+		}
+	}
+
+	static class Const extends Node {
+		Object value; // Double, Long, Boolean or String
+
+		Const(Object v, int l) {
+			kind = CONST;
+			value = v;
+			line = l;
+		}
+	}
+
+	static class Var extends Node {
+		String name;
+		int slot; // set by the Resolver
+		boolean global; // slot of the top level, used from a function
+
+		Var(String n, int l) {
+			kind = VAR;
+			name = n;
+			line = l;
+		}
+	}
+
+	static class Unary extends Node {
+		int op; // '-' or BOOL_OP + NOT
+		Node exp;
+
+		Unary(int o, Node e, int l) {
+			kind = UNARY;
+			op = o;
+			exp = e;
+			line = l;
+		}
+	}
+
+	static class Binary extends Node {
+		int op; // operator code from the lexer
+		Node left, right;
+
+		Binary(int o, Node le, Node r, int l) {
+			kind = BINARY;
+			op = o;
+			left = le;
+			right = r;
+			line = l;
+		}
+	}
+
+	static class Call extends Node {
+		String key; // lower case function name
+		Node[] args;
+		Function target; // set by the Resolver, null for no such function
+
+		Call(String k, Node[] a, int l) {
+			kind = CALL;
+			key = k;
+			args = a;
+			line = l;
+		}
+	}
+
+	// Not a statement, functions are collected by the Parser
+	static class Function {
+		String name;
+		String[] params;
+		Block body;
+		int line;
+		int nLocals; // slots, parameters first, set by the Resolver
+		boolean pure; // results are kept, see Memo
+
+		Function(String n, String[] p, Block b, boolean pu, int l) {
+			name = n;
+			params = p;
+			body = b;
+			pure = pu;
+			line = l;
+		}
+	}
+}
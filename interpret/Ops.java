@@ -0,0 +1,297 @@
+package interpret;
+
+import interpret.Edit.InterpreterException;
+
+// What the operators do to values. Values are Double, Long (a whole
+// number, see Value.INT), Boolean or a string (a String or a Rope) as in
+// the char interpreter; the engines that run a
+// compiled program share these so they all give the same results and
+// errors.
+class Ops {
+
+	private Ops() {
+	}
+
+	static Object binary(int op, Object l, Object r, int line)
+			throws InterpreterException {
+		switch (op) {
+		case '+':
+			if (l instanceof Number) {
+				if (!(r instanceof Number))
+					throw error(Edit.NOTANUMB, line);
+				return number(op, l, r, line);
+			}
+			if (l instanceof CharSequence) {
+				if (!(r instanceof CharSequence))
+					throw error(Edit.NOTASTR, line);
+				return Rope.concat((CharSequence) l, (CharSequence) r);
+			}
+			throw error(Edit.INVALIDEXP, line);
+		case '-':
+		case '*':
+		case '/':
+		case '%':
+		case '^':
+			if (!(l instanceof Number) || !(r instanceof Number)) {
+				if (op == '-' && l instanceof CharSequence)
+					throw error(Edit.INVALIDEXP, line);
+				throw error(Edit.NOTANUMB, line);
+			}
+			return number(op, l, r, line);
+		case Edit.LE:
+		case Edit.GE:
+		case '<':
+		case '>':
+		case Edit.EQ:
+			if (l instanceof Long && r instanceof Long)
+				return compare(op, Long.compare((long) l, (long) r));
+			if (l instanceof Number && r instanceof Number)
+				return compare(op, ((Number) l).doubleValue(),
+						((Number) r).doubleValue());
+			if (l instanceof CharSequence && r instanceof CharSequence)
+				return compare(op, l.toString().compareTo(r.toString()));
+			if (op == Edit.EQ && l instanceof Boolean && r instanceof Boolean)
+				return l.equals(r);
+			throw error(l instanceof CharSequence ? Edit.NOTASTR
+					: Edit.NOTANUMB, line);
+		case Edit.BOOL_OP + Edit.AND:
+		case Edit.BOOL_OP + Edit.OR:
+		case Edit.BOOL_OP + Edit.XOR:
+		case Edit.BOOL_OP + Edit.XAND:
+			if (!(l instanceof Boolean) || !(r instanceof Boolean))
+				throw error(Edit.NOTABOOL, line);
+			return logic(op, (boolean) l, (boolean) r);
+		}
+		throw error(Edit.INVALIDEXP, line);
+	}
+
+	// Two boxed numbers
+	private static Object number(int op, Object l, Object r, int line)
+			throws InterpreterException {
+		if (l instanceof Long && r instanceof Long) {
+			try {
+				return whole(op, (long) l, (long) r, line);
+			} catch (ArithmeticException exc) {
+				// in doubles
+			}
+		}
+		return arith(op, ((Number) l).doubleValue(),
+				((Number) r).doubleValue(), line);
+	}
+
+	// Thrown by whole for a result that is not a whole number
+	private static final ArithmeticException FRACTION =
+			new ArithmeticException("not a whole number");
+
+	// l op r for two whole numbers, exact. An ArithmeticException when the
+	// result is not a whole number: too big for a long, a division with a
+	// remainder or a negative power. The engines then work it out again in
+	// doubles, arith.
+	static long whole(int op, long l, long r, int line)
+			throws InterpreterException {
+		switch (op) {
+		case '+':
+			return Math.addExact(l, r);
+		case '-':
+			return Math.subtractExact(l, r);
+		case '*':
+			return Math.multiplyExact(l, r);
+		case '/':
+			if (r == 0)
+				throw error(Edit.DIVBYZERO, line);
+			if (l % r != 0)
+				throw FRACTION;
+			return r == -1 ? Math.negateExact(l) : l / r;
+		case '%':
+			if (r == 0)
+				throw error(Edit.DIVBYZERO, line);
+			return l % r;
+		case '^':
+			if (r < 0)
+				throw FRACTION;
+			return power(l, r);
+		}
+		throw error(Edit.INVALIDEXP, line);
+	}
+
+	// + - * / % or ^, what whole and arith work out
+	static boolean isArith(int op) {
+		switch (op) {
+		case '+':
+		case '-':
+		case '*':
+		case '/':
+		case '%':
+		case '^':
+			return true;
+		}
+		return false;
+	}
+
+	static double arith(int op, double l, double r, int line)
+			throws InterpreterException {
+		switch (op) {
+		case '+':
+			return l + r;
+		case '-':
+			return l - r;
+		case '*':
+			return l * r;
+		case '/':
+			if (r == 0.0)
+				throw error(Edit.DIVBYZERO, line);
+			return l / r;
+		case '%':
+			if (r == 0.0)
+				throw error(Edit.DIVBYZERO, line);
+			return l % r;
+		case '^':
+			return power(l, r);
+		}
+		throw error(Edit.INVALIDEXP, line);
+	}
+
+	// A whole exponent by squaring, a multiplication or two for each bit of
+	// it, anything else with Math.pow
+	static double power(double base, double ex) {
+		if (ex != Math.rint(ex) || Math.abs(ex) >= 0x1p53)
+			return Math.pow(base, ex); // also NaN and the infinities
+
+		long n = (long) Math.abs(ex);
+		double result = 1.0;
+		while (n > 0) {
+			if ((n & 1) != 0)
+				result *= base;
+			base *= base;
+			n >>= 1;
+		}
+		return ex < 0 ? 1.0 / result : result;
+	}
+
+	// A power of two whole numbers, ex not negative, by squaring
+	private static long power(long base, long ex) {
+		long result = 1;
+		while (true) {
+			if ((ex & 1) != 0)
+				result = Math.multiplyExact(result, base);
+			ex >>= 1;
+			if (ex == 0)
+				return result;
+			base = Math.multiplyExact(base, base);
+		}
+	}
+
+	// A comparison of two numbers of the kinds given, see Value
+	static boolean compare(int op, Object l, double ln, Object r, double rn) {
+		if (l == Value.INT && r == Value.INT)
+			return compare(op, Long.compare(Value.whole(ln), Value.whole(rn)));
+		return compare(op, Value.dbl(l, ln), Value.dbl(r, rn));
+	}
+
+	static boolean compare(int op, double l, double r) {
+		switch (op) {
+		case '<':
+			return l < r;
+		case Edit.LE:
+			return l <= r;
+		case '>':
+			return l > r;
+		case Edit.GE:
+			return l >= r;
+		default: // EQ
+			return l == r;
+		}
+	}
+
+	// Turn a compareTo style result into the relation asked for
+	static boolean compare(int op, int test) {
+		switch (op) {
+		case '<':
+			return test < 0;
+		case Edit.LE:
+			return test <= 0;
+		case '>':
+			return test > 0;
+		case Edit.GE:
+			return test >= 0;
+		default: // EQ
+			return test == 0;
+		}
+	}
+
+	static boolean logic(int op, boolean l, boolean r) {
+		switch (op) {
+		case Edit.BOOL_OP + Edit.AND:
+			return l && r;
+		case Edit.BOOL_OP + Edit.OR:
+			return l || r;
+		case Edit.BOOL_OP + Edit.XOR:
+			return l ^ r;
+		default: // XAND
+			return l == r;
+		}
+	}
+
+	static Object unary(int op, Object o, int line) throws InterpreterException {
+		if (op == '-') {
+			if (o instanceof Double)
+				return -(double) o;
+			if (o instanceof Long) {
+				long l = (long) o;
+				return l == Long.MIN_VALUE ? (Object) (-(double) l) : -l;
+			}
+			throw error(o instanceof Boolean ? Edit.NOTANUMB : Edit.INVALIDEXP,
+					line);
+		}
+		if (o instanceof Boolean)
+			return !(boolean) o;
+		throw error(o instanceof Number ? Edit.NOTABOOL : Edit.INVALIDEXP, line);
+	}
+
+	// Typed in text becomes a number or boolean when it looks like one
+	static Object fromInput(String str) {
+		String lower = str.toLowerCase();
+		if (lower.equals("true") || lower.equals("false"))
+			return Boolean.valueOf(lower.equals("true"));
+
+		boolean number = str.length() > 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (!Character.isDigit(c) && c != '-' && c != '.')
+				number = false;
+		}
+		if (number) {
+			try {
+				return number(str);
+			} catch (NumberFormatException exc) {
+				// keep it as text
+			}
+		}
+		return str;
+	}
+
+	// A number as a program or its input writes it: a Long when there is no
+	// point and it fits, else a Double
+	static Object number(String s) {
+		if (s.indexOf('.') < 0) {
+			try {
+				return Long.parseLong(s);
+			} catch (NumberFormatException exc) {
+				// too long, a Double
+			}
+		}
+		return Double.parseDouble(s);
+	}
+
+	// Stops a run whose thread was interrupted, see Runner. Checked where a
+	// run can go on for ever: a loop going round and a call.
+	static void poll(int line) throws InterpreterException {
+		if (Thread.currentThread().isInterrupted())
+			throw error(Edit.STOPPED, line);
+	}
+
+	static InterpreterException error(int error, int line) {
+		return new InterpreterException(error, Edit.errStr[error]
+				+ "\nLine number: " + line);
+	}
+}
@@ -0,0 +1,181 @@
+package interpret;
+
+import java.util.ArrayList;
+
+import interpret.Edit.InterpreterException;
+
+// Simplifies the syntax tree once, after the Parser and before the
+// Resolver, so the tree walker and the VM do less on every run:
+//   - operators on constants are worked out, "2 + 3 * 4" becomes 14
+//   - an if drops the branches a constant condition never takes, and
+//     one that always takes a branch is only that branch
+//   - a while false loop goes away
+//   - statements after a return, or after anything that never ends (a
+//     while true, an if returning from every branch), go away
+//   - x ^ 2 becomes x * x
+// An operator whose constants would fail, like 1 / 0, is left as it is so
+// the error still comes when it is run. A branch kept on its own stays in
+// its own block: an if with no conditions and only an else.
+class Optimizer {
+
+	public Optimizer(Parser p) {
+		block(p.main);
+		for (Node.Function f : p.functs.values())
+			block(f.body);
+	}
+
+	private void block(Node.Block b) {
+		ArrayList<Node> stats = new ArrayList<Node>();
+		for (Node n : b.stats) {
+			n = statement(n);
+			if (n == null)
+				continue;
+			stats.add(n);
+			if (ends(n))
+				break; // the rest is never run
+		}
+		b.stats = stats.toArray(new Node[stats.size()]);
+	}
+
+	// The statement simplified, null when it does nothing
+	private Node statement(Node n) {
+		switch (n.kind) {
+		case Node.PRINT:
+			Node[] exps = ((Node.Print) n).exps;
+			for (int i = 0; i < exps.length; i++)
+				exps[i] = expression(exps[i]);
+			return n;
+		case Node.IF:
+			return ifStat((Node.If) n);
+		case Node.FOR:
+			Node.For f = (Node.For) n;
+			f.init = expression(f.init);
+			f.cond = expression(f.cond);
+			f.step = expression(f.step);
+			block(f.body);
+			return n;
+		case Node.WHILE:
+			Node.While w = (Node.While) n;
+			w.cond = expression(w.cond);
+			if (w.cond.kind == Node.CONST
+					&& Boolean.FALSE.equals(((Node.Const) w.cond).value))
+				return null;
+			block(w.body);
+			return n;
+		case Node.RETURN:
+			Node.Return r = (Node.Return) n;
+			if (r.exp != null)
+				r.exp = expression(r.exp);
+			return n;
+		case Node.ASSIGN:
+			Node.Assign a = (Node.Assign) n;
+			a.exp = expression(a.exp);
+			return n;
+		case Node.CALL:
+			return expression(n);
+		}
+		return n;
+	}
+
+	private Node ifStat(Node.If i) {
+		ArrayList<Node> conds = new ArrayList<Node>();
+		ArrayList<Node.Block> blocks = new ArrayList<Node.Block>();
+		Node.Block elseBlock = i.elseBlock;
+
+		for (int k = 0; k < i.conds.length; k++) {
+			Node c = expression(i.conds[k]);
+			if (c.kind == Node.CONST) {
+				Object v = ((Node.Const) c).value;
+				if (Boolean.FALSE.equals(v))
+					continue; // never taken
+				if (Boolean.TRUE.equals(v)) {
+					elseBlock = i.blocks[k]; // always taken, the rest never
+					break;
+				}
+			}
+			conds.add(c);
+			blocks.add(i.blocks[k]);
+		}
+
+		if (conds.isEmpty() && elseBlock == null)
+			return null;
+
+		for (Node.Block b : blocks)
+			block(b);
+		if (elseBlock != null)
+			block(elseBlock);
+
+		i.conds = conds.toArray(new Node[conds.size()]);
+		i.blocks = blocks.toArray(new Node.Block[blocks.size()]);
+		i.elseBlock = elseBlock;
+		return i;
+	}
+
+	// True when the statement never goes on to the next one
+	private static boolean ends(Node n) {
+		switch (n.kind) {
+		case Node.RETURN:
+			return true;
+		case Node.WHILE:
+			Node cond = ((Node.While) n).cond;
+			return cond.kind == Node.CONST
+					&& Boolean.TRUE.equals(((Node.Const) cond).value);
+		case Node.IF:
+			Node.If i = (Node.If) n;
+			if (i.elseBlock == null || !ends(i.elseBlock))
+				return false;
+			for (Node.Block b : i.blocks) {
+				if (!ends(b))
+					return false;
+			}
+			return true;
+		case Node.BLOCK:
+			Node[] stats = ((Node.Block) n).stats;
+			return stats.length > 0 && ends(stats[stats.length - 1]);
+		}
+		return false;
+	}
+
+	private Node expression(Node n) {
+		switch (n.kind) {
+		case Node.UNARY:
+			Node.Unary u = (Node.Unary) n;
+			u.exp = expression(u.exp);
+			if (u.exp.kind == Node.CONST) {
+				try {
+					return new Node.Const(Ops.unary(u.op,
+							((Node.Const) u.exp).value, u.line), u.line);
+				} catch (InterpreterException exc) {
+					// fails when it is run
+				}
+			}
+			return n;
+		case Node.BINARY:
+			Node.Binary b = (Node.Binary) n;
+			b.left = expression(b.left);
+			b.right = expression(b.right);
+			if (b.left.kind == Node.CONST && b.right.kind == Node.CONST) {
+				try {
+					Object v = Ops.binary(b.op, ((Node.Const) b.left).value,
+							((Node.Const) b.right).value, b.line);
+					if (v instanceof Rope)
+						v = v.toString(); // constants are Strings
+					return new Node.Const(v, b.line);
+				} catch (InterpreterException exc) {
+					// fails when it is run
+				}
+			}
+			if (b.op == '^' && b.left.kind == Node.VAR
+					&& b.right.kind == Node.CONST
+					&& Long.valueOf(2).equals(((Node.Const) b.right).value))
+				return new Node.Binary('*', b.left, b.left, b.line);
+			return n;
+		case Node.CALL:
+			Node[] args = ((Node.Call) n).args;
+			for (int i = 0; i < args.length; i++)
+				args[i] = expression(args[i]);
+			return n;
+		}
+		return n;
+	}
+}
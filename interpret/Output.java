@@ -0,0 +1,252 @@
+package interpret;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import interpret.Edit.InterpreterException;
+
+// Where print writes. The text is gathered in a char buffer and only goes
+// to the target when the buffer is full, before input asks a question and
+// when the run ends, so a print costs no lock and no system call. A failed
+// write is remembered and reported by flush().
+public abstract class Output {
+
+	private static final String NL = System.lineSeparator();
+
+	private char[] buf = new char[8192];
+	private int len;
+	private IOException failed;
+	private boolean doubles; // whole numbers as 3.0, see printDoubles
+	private long written; // chars handed to the target
+
+	// Standard output, shared with the "> " status lines
+	public static Output stdout() {
+		return of(new OutputStreamWriter(System.out));
+	}
+
+	// Any Writer, wrap it in a BufferedWriter or not, the text comes in
+	// big pieces anyway
+	public static Output of(Writer w) {
+		return new Output() {
+			protected void write(char[] b, int n) throws IOException {
+				w.write(b, 0, n);
+			}
+
+			protected void done() throws IOException {
+				w.flush();
+			}
+		};
+	}
+
+	// A file, written as UTF-8 from where the channel is. A surrogate pair
+	// cut by the end of a write is kept until the next one brings its end.
+	public static Output of(FileChannel ch) {
+		return of(ch, false);
+	}
+
+	// With sync the file is also forced to the disk at each flush point,
+	// which costs an fsync for every question input asks
+	public static Output of(FileChannel ch, boolean sync) {
+		return new Output() {
+			private CharsetEncoder enc = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE); // a lone half
+			private ByteBuffer bytes = ByteBuffer.allocateDirect(16384);
+			private CharBuffer chars = CharBuffer.allocate(0); // left over
+
+			protected void write(char[] b, int n) throws IOException {
+				if (chars.remaining() < n) {
+					CharBuffer c = CharBuffer.allocate(chars.position() + n);
+					chars.flip();
+					chars = c.put(chars);
+				}
+				chars.put(b, 0, n);
+				chars.flip();
+				while (true) {
+					CoderResult r = enc.encode(chars, bytes, false);
+					bytes.flip();
+					while (bytes.hasRemaining())
+						ch.write(bytes);
+					bytes.clear();
+					if (r.isUnderflow())
+						break;
+				}
+				chars.compact();
+			}
+
+			protected void done() throws IOException {
+				if (sync)
+					ch.force(false);
+			}
+		};
+	}
+
+	// Keeps everything in memory, toString() gives what was printed
+	public static class Memory extends Output {
+		private StringBuilder text = new StringBuilder();
+
+		protected void write(char[] b, int n) {
+			text.append(b, 0, n);
+		}
+
+		protected void done() {
+		}
+
+		public String toString() {
+			flushBuffer();
+			return text.toString();
+		}
+	}
+
+	// Hand n chars to the target
+	protected abstract void write(char[] b, int n) throws IOException;
+
+	// Push what the target holds, at a flush point
+	protected abstract void done() throws IOException;
+
+	// Write whole numbers the old way, as the doubles they are: 3.0 in
+	// place of 3
+	void printDoubles(boolean d) {
+		doubles = d;
+	}
+
+	// Chars printed so far, written or not
+	long printed() {
+		return written + len;
+	}
+
+	void print(String s) {
+		int n = s.length();
+		if (len + n > buf.length) {
+			flushBuffer();
+			if (n > buf.length)
+				buf = new char[n];
+		}
+		s.getChars(0, n, buf, len);
+		len += n;
+	}
+
+	void print(char c) {
+		if (len == buf.length)
+			flushBuffer();
+		buf[len++] = c;
+	}
+
+	// The same text as Double.toString, whole numbers below 10^7 (where it
+	// switches to 1.0E7) are written digit by digit
+	void print(double d) {
+		long l = (long) d;
+		if (l != d || l >= 10000000 || l <= -10000000
+				|| l == 0 && 1 / d < 0) { // -0.0
+			print(Double.toString(d));
+			return;
+		}
+
+		if (len + 10 > buf.length) // -9999999.0
+			flushBuffer();
+		whole(l);
+		buf[len++] = '.';
+		buf[len++] = '0';
+	}
+
+	// A whole number, see Value.INT
+	void print(long l) {
+		if (doubles) {
+			print((double) l);
+			return;
+		}
+		if (len + 20 > buf.length)
+			flushBuffer();
+		whole(l);
+	}
+
+	// A value as the engines hold it, see Value
+	void print(Object ref, double num) {
+		if (ref == Value.NUM)
+			print(num);
+		else if (ref == Value.INT)
+			print(Value.whole(num));
+		else
+			print(String.valueOf(ref));
+	}
+
+	// A boxed value
+	void print(Object o) {
+		if (o instanceof Double)
+			print((double) o);
+		else if (o instanceof Long)
+			print((long) o);
+		else
+			print(String.valueOf(o));
+	}
+
+	void println() {
+		print(NL);
+	}
+
+	// Send everything to the target
+	void flush() throws InterpreterException {
+		flushBuffer();
+		try {
+			if (failed == null)
+				done();
+		} catch (IOException exc) {
+			failed = exc;
+		}
+		if (failed != null) {
+			String msg = failed.getMessage();
+			failed = null;
+			throw new InterpreterException(Edit.OUTPUTIOERROR,
+					Edit.errStr[Edit.OUTPUTIOERROR] + ": " + msg);
+		}
+	}
+
+	// Empty the buffer into the target, errors wait for flush()
+	void flushBuffer() {
+		try {
+			if (failed == null && len > 0) {
+				Events.Print ev = Events.print();
+				write(buf, len);
+				written += len;
+				if (ev != null)
+					ev.done(len);
+			}
+		} catch (IOException exc) {
+			failed = exc;
+		}
+		len = 0;
+	}
+
+	// Digits of l, there is room for them
+	private void whole(long l) {
+		if (l == Long.MIN_VALUE) { // no positive long for -l
+			whole(l / 10);
+			l = -(l % 10);
+		} else if (l < 0) {
+			buf[len++] = '-';
+			l = -l;
+		}
+		int end = len + digits(l);
+		for (int i = end - 1; i >= len; i--) {
+			buf[i] = (char) ('0' + l % 10);
+			l /= 10;
+		}
+		len = end;
+	}
+
+	private static int digits(long l) {
+		int n = 1;
+		while (l >= 10) {
+			l /= 10;
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,485 @@
+package interpret;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import interpret.Edit.InterpreterException;
+
+// Builds the syntax tree from the token table. The grammar is the one the
+// char interpreter in Edit accepts: one statement per line, relational
+// operators bind tighter than boolean ones, and boolean operators take
+// everything to their right.
+class Parser {
+
+	Node.Block main; // top level statements
+	HashMap<String, Node.Function> functs; // by lower case name
+	int mainLocals; // top level slots, set by the Resolver
+
+	private Lexer t;
+	private int pos;
+
+	public Parser(Lexer tokens) throws InterpreterException {
+		t = tokens;
+		functs = new HashMap<String, Node.Function>();
+
+		main = block();
+
+		if (type() != Edit.EOP) // an end or else too many
+			throw error(Edit.SYNTAX);
+	}
+
+	//
+	//
+	//
+	// ***************************STATEMENTS*******************************
+	//
+	//
+	//
+
+	// Statements up to an end, an else or the end of the program
+	private Node.Block block() throws InterpreterException {
+		ArrayList<Node> stats = new ArrayList<Node>();
+		int l = line();
+
+		while (true) {
+			while (type() == Edit.EOL)
+				next();
+
+			if (type() == Edit.EOP || isComm(Edit.END) || isComm(Edit.ELSE))
+				break;
+
+			Node s = statement();
+			if (s != null)
+				stats.add(s);
+
+			// All statements end on their line
+			if (type() != Edit.EOL && type() != Edit.EOP)
+				throw error(Edit.UNEXPITEM);
+		}
+
+		return new Node.Block(stats.toArray(new Node[stats.size()]), l);
+	}
+
+	private Node statement() throws InterpreterException {
+		int l = line();
+
+		switch (type()) {
+		case Edit.VARIABLE:
+			String name = text();
+			String key = key();
+			next();
+
+			if (isOp('('))
+				return call(key, l);
+
+			if (!isOp('='))
+				throw error(Edit.EQUALEXPECTED);
+			next();
+			return new Node.Assign(name, expression(), l);
+		case Edit.COMMAND:
+			int comm = code();
+			next();
+
+			switch (comm) {
+			case Edit.PRINT:
+				return print(l);
+			case Edit.INPUT:
+				return input(l);
+			case Edit.IF:
+				return ifStat(l);
+			case Edit.FOR:
+				return forLoop(l);
+			case Edit.WHILE:
+				return whileLoop(l);
+			case Edit.FUNCTION:
+				function(l, false);
+				return null;
+			case Edit.PURE:
+				if (!isComm(Edit.FUNCTION))
+					throw error(Edit.SYNTAX);
+				next();
+				function(l, true);
+				return null;
+			case Edit.RETURN:
+				if (type() == Edit.EOL || type() == Edit.EOP)
+					return new Node.Return(null, l);
+				return new Node.Return(expression(), l);
+			}
+			throw error(Edit.SYNTAX); // then, do, end or else
+		default:
+			throw error(Edit.UNEXPITEM);
+		}
+	}
+
+	private Node print(int l) throws InterpreterException {
+		ArrayList<Node> exps = new ArrayList<Node>();
+		ArrayList<Integer> seps = new ArrayList<Integer>();
+
+		while (type() != Edit.EOL && type() != Edit.EOP) {
+			exps.add(expression());
+
+			if (isOp(',') || isOp(';')) { // one more item
+				seps.add(code());
+				next();
+			} else if (type() != Edit.EOL && type() != Edit.EOP)
+				throw error(Edit.SYNTAX);
+			else
+				seps.add(0);
+		}
+
+		int[] s = new int[seps.size()];
+		for (int i = 0; i < s.length; i++)
+			s[i] = seps.get(i);
+
+		return new Node.Print(exps.toArray(new Node[exps.size()]), s, l);
+	}
+
+	private Node input(int l) throws InterpreterException {
+		String prompt = null;
+
+		// See if next has question to output
+		if (type() == Edit.STRING) {
+			prompt = text();
+			next();
+			if (!isOp(','))
+				throw error(Edit.SYNTAX);
+			next();
+		}
+
+		if (type() != Edit.VARIABLE)
+			throw error(Edit.NOTAVAR);
+
+		String name = text();
+		next();
+		return new Node.Input(prompt, name, l);
+	}
+
+	private Node ifStat(int l) throws InterpreterException {
+		ArrayList<Node> conds = new ArrayList<Node>();
+		ArrayList<Node.Block> blocks = new ArrayList<Node.Block>();
+		Node.Block elseBlock = null;
+
+		while (true) {
+			conds.add(expression());
+			if (!isComm(Edit.THEN))
+				throw error(Edit.THENEXPECTED);
+			next();
+			blocks.add(block());
+
+			if (!isComm(Edit.ELSE))
+				break;
+			next();
+
+			if (!isComm(Edit.IF)) {
+				elseBlock = block();
+				break;
+			}
+			next(); // else if
+		}
+
+		endExpected();
+
+		return new Node.If(conds.toArray(new Node[conds.size()]),
+				blocks.toArray(new Node.Block[blocks.size()]), elseBlock, l);
+	}
+
+	private Node forLoop(int l) throws InterpreterException {
+		if (type() != Edit.VARIABLE)
+			throw error(Edit.NOTAVAR);
+		String name = text();
+		next();
+
+		if (!isOp('='))
+			throw error(Edit.EQUALEXPECTED);
+		next();
+		Node init = expression();
+
+		if (!isOp(','))
+			throw error(Edit.SYNTAX);
+		next();
+		Node cond = expression();
+
+		if (!isOp(','))
+			throw error(Edit.SYNTAX);
+		next();
+		Node step = expression();
+
+		if (!isComm(Edit.DO))
+			throw error(Edit.DOEXPECTED);
+		next();
+
+		Node.Block body = block();
+		endExpected();
+
+		return new Node.For(name, init, cond, step, body, l);
+	}
+
+	private Node whileLoop(int l) throws InterpreterException {
+		Node cond = expression();
+
+		if (!isComm(Edit.DO))
+			throw error(Edit.DOEXPECTED);
+		next();
+
+		Node.Block body = block();
+		endExpected();
+
+		return new Node.While(cond, body, l);
+	}
+
+	// Functions are known before the program starts
+	private void function(int l, boolean pure) throws InterpreterException {
+		if (type() != Edit.VARIABLE)
+			throw error(Edit.NOTAVAR);
+		String name = text();
+		String key = key();
+		next();
+
+		if (!isOp('('))
+			throw error(Edit.SYNTAX);
+		next();
+
+		ArrayList<String> params = new ArrayList<String>();
+		if (!isOp(')')) {
+			while (true) {
+				if (type() != Edit.VARIABLE)
+					throw error(Edit.NOTAVAR);
+				params.add(text());
+				next();
+				if (!isOp(','))
+					break;
+				next();
+			}
+			if (!isOp(')'))
+				throw error(Edit.SYNTAX);
+		}
+		next();
+
+		if (!isComm(Edit.DO))
+			throw error(Edit.DOEXPECTED);
+		next();
+
+		Node.Block body = block();
+		endExpected();
+
+		if (functs.containsKey(key))
+			throw error(Edit.DUPFUNCTION);
+
+		functs.put(key, new Node.Function(name,
+				params.toArray(new String[params.size()]), body, pure, l));
+	}
+
+	private void endExpected() throws InterpreterException {
+		if (!isComm(Edit.END))
+			throw error(Edit.ENDEXPECTED);
+		next();
+	}
+
+	//
+	//
+	//
+	// ***************************EXPRESSIONS*******************************
+	//
+	//
+	//
+
+	private Node expression() throws InterpreterException {
+		if (type() == Edit.EOL || type() == Edit.EOP)
+			throw error(Edit.EXPERR); // no expression present
+
+		return exp1();
+	}
+
+	// Relational and boolean operators
+	private Node exp1() throws InterpreterException {
+		Node result = exp2();
+
+		while (true) {
+			int l = line();
+			int op = code();
+
+			if (isRelOp()) {
+				next();
+				result = new Node.Binary(op, result, exp2(), l);
+			} else if (isBoolOp() && op != Edit.BOOL_OP + Edit.NOT) {
+				next();
+				return new Node.Binary(op, result, exp1(), l);
+			} else
+				return result;
+		}
+	}
+
+	// Add or subtract two terms.
+	private Node exp2() throws InterpreterException {
+		Node result = exp3();
+
+		while (isOp('+') || isOp('-')) {
+			int l = line();
+			int op = code();
+			next();
+			result = new Node.Binary(op, result, exp3(), l);
+		}
+		return result;
+	}
+
+	// Multiply or divide two factors.
+	private Node exp3() throws InterpreterException {
+		Node result = exp4();
+
+		while (isOp('*') || isOp('/') || isOp('%')) {
+			int l = line();
+			int op = code();
+			next();
+			result = new Node.Binary(op, result, exp4(), l);
+		}
+		return result;
+	}
+
+	// Process an exponent.
+	private Node exp4() throws InterpreterException {
+		Node result = exp5();
+
+		if (isOp('^')) {
+			int l = line();
+			next();
+			result = new Node.Binary('^', result, exp4(), l);
+		}
+		return result;
+	}
+
+	// A unary + or - and NOT
+	private Node exp5() throws InterpreterException {
+		if (isOp('-') || isOp(Edit.BOOL_OP + Edit.NOT)) {
+			int l = line();
+			int op = code();
+			next();
+			return new Node.Unary(op, exp6(), l);
+		}
+		return exp6();
+	}
+
+	// Process a parenthesized expression.
+	private Node exp6() throws InterpreterException {
+		if (isOp('(')) {
+			next();
+			Node result = exp1();
+			if (!isOp(')'))
+				throw error(Edit.UNBALPARENS);
+			next();
+			return result;
+		}
+		return atom();
+	}
+
+	// A literal, variable or function call
+	private Node atom() throws InterpreterException {
+		int l = line();
+		Node result;
+
+		switch (type()) {
+		case Edit.NUMBER:
+		case Edit.BOOLEAN:
+		case Edit.STRING:
+			result = new Node.Const(value(), l);
+			next();
+			return result;
+		case Edit.VARIABLE:
+			String name = text();
+			String key = key();
+			next();
+
+			if (isOp('('))
+				return call(key, l);
+			return new Node.Var(name, l);
+		default:
+			throw error(Edit.INVALIDEXP);
+		}
+	}
+
+	// Arguments of a call, the name is already read
+	private Node.Call call(String key, int l) throws InterpreterException {
+		ArrayList<Node> args = new ArrayList<Node>();
+		next(); // (
+
+		if (!isOp(')')) {
+			args.add(expression());
+			while (isOp(',')) {
+				next();
+				args.add(expression());
+			}
+			if (!isOp(')'))
+				throw error(Edit.UNBALPARENS);
+		}
+		next();
+
+		return new Node.Call(key, args.toArray(new Node[args.size()]), l);
+	}
+
+	//
+	//
+	//
+	// **************** Background Methods***********************************
+	//
+	//
+	//
+
+	private void next() {
+		if (t.type[pos] != Edit.EOP)
+			pos++;
+	}
+
+	private int type() {
+		return t.type[pos];
+	}
+
+	private int code() {
+		return t.code[pos];
+	}
+
+	private int line() {
+		return t.line[pos];
+	}
+
+	private String text() {
+		return t.text[t.cons[pos]];
+	}
+
+	private String key() {
+		return t.key[t.cons[pos]];
+	}
+
+	private Object value() {
+		return t.value[t.cons[pos]];
+	}
+
+	private boolean isOp(int op) {
+		return type() == Edit.DELIMITER && code() == op;
+	}
+
+	private boolean isComm(int comm) {
+		return type() == Edit.COMMAND && code() == comm;
+	}
+
+	private boolean isRelOp() {
+		if (type() != Edit.DELIMITER)
+			return false;
+		switch (code()) {
+		case Edit.LE:
+		case Edit.GE:
+		case '<':
+		case '>':
+		case Edit.EQ:
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isBoolOp() {
+		return type() == Edit.DELIMITER && code() >= Edit.BOOL_OP;
+	}
+
+	private InterpreterException error(int error) {
+		return new InterpreterException(error, Edit.errStr[error] + ": " + pos
+				+ "\nLine number: " + line() + "\nItem: " + text());
+	}
+}
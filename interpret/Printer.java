@@ -0,0 +1,157 @@
+package interpret;
+
+import java.math.BigDecimal;
+
+// Writes a syntax tree back as Edit source, to see what the Optimizer made
+// of a program. Every operator inside another one gets parentheses, the
+// text runs the same but need not look like what was written.
+class Printer {
+
+	private StringBuilder sb = new StringBuilder();
+	private int indent;
+
+	static String print(Parser p) {
+		Printer pr = new Printer();
+		for (Node.Function f : p.functs.values())
+			pr.function(f);
+		pr.block(p.main);
+		return pr.sb.toString();
+	}
+
+	private void function(Node.Function f) {
+		line((f.pure ? "pure function " : "function ") + f.name + "("
+				+ String.join(", ", f.params) + ") do");
+		body(f.body);
+		line("end");
+		line("");
+	}
+
+	private void body(Node.Block b) {
+		indent++;
+		block(b);
+		indent--;
+	}
+
+	private void block(Node.Block b) {
+		for (Node n : b.stats)
+			statement(n);
+	}
+
+	private void statement(Node n) {
+		switch (n.kind) {
+		case Node.PRINT:
+			Node.Print p = (Node.Print) n;
+			StringBuilder s = new StringBuilder("print");
+			for (int i = 0; i < p.exps.length; i++) {
+				s.append(i == 0 ? " " : "").append(exp(p.exps[i]));
+				if (p.seps[i] != 0)
+					s.append((char) p.seps[i]).append(' ');
+			}
+			line(s.toString().trim());
+			break;
+		case Node.INPUT:
+			Node.Input in = (Node.Input) n;
+			line("input " + (in.prompt == null ? "" : "\"" + in.prompt + "\", ")
+					+ in.name);
+			break;
+		case Node.IF:
+			Node.If i = (Node.If) n;
+			if (i.conds.length == 0) { // only the else, in its own block
+				line("if true then");
+				body(i.elseBlock);
+				line("end");
+				break;
+			}
+			for (int k = 0; k < i.conds.length; k++) {
+				line((k == 0 ? "if " : "else if ") + exp(i.conds[k]) + " then");
+				body(i.blocks[k]);
+			}
+			if (i.elseBlock != null) {
+				line("else");
+				body(i.elseBlock);
+			}
+			line("end");
+			break;
+		case Node.FOR:
+			Node.For f = (Node.For) n;
+			line("for " + f.name + " = " + exp(f.init) + ", " + exp(f.cond)
+					+ ", " + exp(f.step) + " do");
+			body(f.body);
+			line("end");
+			break;
+		case Node.WHILE:
+			Node.While w = (Node.While) n;
+			line("while " + exp(w.cond) + " do");
+			body(w.body);
+			line("end");
+			break;
+		case Node.RETURN:
+			Node.Return r = (Node.Return) n;
+			line(r.exp == null ? "return" : "return " + exp(r.exp));
+			break;
+		case Node.ASSIGN:
+			Node.Assign a = (Node.Assign) n;
+			line(a.name + " = " + exp(a.exp));
+			break;
+		case Node.CALL:
+			line(exp(n));
+			break;
+		}
+	}
+
+	private String exp(Node n) {
+		switch (n.kind) {
+		case Node.CONST:
+			Object v = ((Node.Const) n).value;
+			if (v instanceof String)
+				return "\"" + v + "\"";
+			if (v instanceof Double && !((Double) v).isNaN()
+					&& !((Double) v).isInfinite())
+				return BigDecimal.valueOf((double) v).toPlainString();
+			return String.valueOf(v);
+		case Node.VAR:
+			return ((Node.Var) n).name;
+		case Node.UNARY:
+			Node.Unary u = (Node.Unary) n;
+			return (u.op == '-' ? "-" : "not ") + inner(u.exp);
+		case Node.BINARY:
+			Node.Binary b = (Node.Binary) n;
+			return inner(b.left) + " " + op(b.op) + " " + inner(b.right);
+		case Node.CALL:
+			Node.Call c = (Node.Call) n;
+			StringBuilder s = new StringBuilder(
+					c.target != null ? c.target.name : c.key).append('(');
+			for (int i = 0; i < c.args.length; i++)
+				s.append(i == 0 ? "" : ", ").append(exp(c.args[i]));
+			return s.append(')').toString();
+		}
+		return "?";
+	}
+
+	// An operand, in parentheses when it is an operator itself
+	private String inner(Node n) {
+		if (n.kind == Node.BINARY || n.kind == Node.UNARY)
+			return "(" + exp(n) + ")";
+		return exp(n);
+	}
+
+	private static String op(int op) {
+		if (op >= Edit.BOOL_OP)
+			return Edit.bOps[op - Edit.BOOL_OP];
+		switch (op) {
+		case Edit.LE:
+			return "<=";
+		case Edit.GE:
+			return ">=";
+		case Edit.EQ:
+			return "==";
+		}
+		return String.valueOf((char) op);
+	}
+
+	private void line(String s) {
+		for (int i = 0; i < indent; i++)
+			sb.append('\t');
+		sb.append(s).append('\n');
+	}
+}
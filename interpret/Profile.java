@@ -0,0 +1,158 @@
+package interpret;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Counts how often each line and each function of a run of the char
+// interpreter runs, and the time spent there, see Edit.setProfile. A
+// line's time is from its statement starting until the next one starts,
+// less the calls made on the way. A function's time is from its call to
+// its return, with everything it calls, a recursive call counted once.
+// Events are passed on to the next Trace when there is one.
+class Profile implements Trace {
+
+	static final int TOP = 10; // lines and functions in the report
+
+	private Trace next; // null for none
+
+	private long[] runs = new long[64]; // by line
+	private long[] nanos = new long[64];
+	private int line; // running since last, 0 before the first statement
+	private long last;
+	private long start;
+	private long end;
+
+	// calls, nanos and calls not yet returned, by name
+	private HashMap<String, long[]> functs = new HashMap<String, long[]>();
+
+	// Calls not yet returned, innermost last
+	private ArrayList<long[]> open = new ArrayList<long[]>();
+	private int[] callers = new int[16]; // line of each call
+	private long[] called = new long[16]; // nanoTime of each call
+
+	public Profile(Trace t) {
+		next = t;
+		start = last = System.nanoTime();
+	}
+
+	public void token(String item, int type, int line, int depth) {
+		if (next != null)
+			next.token(item, type, line, depth);
+	}
+
+	public void statement(int command, int l, int depth) {
+		charge();
+		if (l >= runs.length) {
+			int n = Math.max(l + 1, runs.length * 2);
+			runs = Arrays.copyOf(runs, n);
+			nanos = Arrays.copyOf(nanos, n);
+		}
+		runs[l]++;
+		line = l;
+		if (next != null)
+			next.statement(command, l, depth);
+	}
+
+	public void call(String name, int l, int depth) {
+		charge();
+		long[] f = functs.get(name);
+		if (f == null) {
+			f = new long[3];
+			functs.put(name, f);
+		}
+		f[0]++;
+		f[2]++;
+
+		int n = open.size();
+		if (n == callers.length) {
+			callers = Arrays.copyOf(callers, n * 2);
+			called = Arrays.copyOf(called, n * 2);
+		}
+		callers[n] = line;
+		called[n] = last;
+		open.add(f);
+		if (next != null)
+			next.call(name, l, depth);
+	}
+
+	public void ret(String name, Object value, int depth) {
+		charge();
+		int n = open.size() - 1;
+		long[] f = open.remove(n);
+		if (--f[2] == 0) // the outermost call of it
+			f[1] += last - called[n];
+		line = callers[n];
+		if (next != null)
+			next.ret(name, value, depth);
+	}
+
+	public void push(int depth) {
+		if (next != null)
+			next.push(depth);
+	}
+
+	public void pop(int depth) {
+		if (next != null)
+			next.pop(depth);
+	}
+
+	public void write(String name, Object value, int depth) {
+		if (next != null)
+			next.write(name, value, depth);
+	}
+
+	public void message(String s, int depth) {
+		if (next != null)
+			next.message(s, depth);
+	}
+
+	// The run is over
+	void end() {
+		charge();
+		end = last;
+	}
+
+	// The time since the last event goes to the line running
+	private void charge() {
+		long now = System.nanoTime();
+		nanos[line] += now - last;
+		last = now;
+	}
+
+	// The TOP lines and functions that took longest
+	public String toString() {
+		long statements = 0;
+		ArrayList<Integer> lines = new ArrayList<Integer>();
+		for (int l = 1; l < runs.length; l++) {
+			statements += runs[l];
+			if (runs[l] > 0)
+				lines.add(l);
+		}
+		lines.sort((a, b) -> Long.compare(nanos[b], nanos[a]));
+		ArrayList<Map.Entry<String, long[]>> fs =
+				new ArrayList<Map.Entry<String, long[]>>(functs.entrySet());
+		fs.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+		StringBuilder sb = new StringBuilder("Profile: " + statements
+				+ " statements in " + ms(end - start) + " ms");
+		sb.append("\n  hottest lines (runs, ms):");
+		for (int i = 0; i < lines.size() && i < TOP; i++) {
+			int l = lines.get(i);
+			sb.append("\n    line " + l + ": " + runs[l] + ", "
+					+ ms(nanos[l]));
+		}
+		sb.append("\n  hottest functions (calls, ms with what they call):");
+		for (int i = 0; i < fs.size() && i < TOP; i++) {
+			long[] f = fs.get(i).getValue();
+			sb.append("\n    " + fs.get(i).getKey() + ": " + f[0] + ", "
+					+ ms(f[1]));
+		}
+		return sb.toString();
+	}
+
+	private static String ms(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
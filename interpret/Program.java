@@ -0,0 +1,64 @@
+package interpret;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import interpret.Edit.InterpreterException;
+
+// A loaded program: its tokens, and the syntax tree and bytecode the first
+// run of an engine made from them. None of it changes once made, so one
+// Program can be run by many Edits, on many threads, at the same time.
+// Everything a run changes (variables, stacks, the current token) is in
+// the Edit.
+class Program {
+
+	final String name;
+	final Lexer tokens; // holds all the program, split into tokens
+
+	private Parser parser; // syntax tree, made the first time it is needed
+	private Compiler compiler; // bytecode, made from the syntax tree
+
+	Program(String n, Lexer t) {
+		name = n;
+		tokens = t;
+	}
+
+	// Reads and lexes a program, or takes its tokens from a Cache in
+	// cacheDir when there is one
+	static Program load(String name, String cacheDir)
+			throws InterpreterException {
+		Events.Load ev = Events.load();
+		ByteBuffer bytes = Source.map(name);
+
+		// Split it into tokens once, loops and calls reuse them
+		Lexer t;
+		if (cacheDir != null)
+			t = new Cache(cacheDir).tokens(bytes, name);
+		else {
+			CharBuffer src = Source.decode(bytes, name);
+			t = new Lexer(src.array(), src.position(), src.limit());
+		}
+		if (ev != null)
+			ev.done(name, bytes.capacity(), t.size, cacheDir != null);
+		Metrics.ALL.loaded();
+		return new Program(name, t);
+	}
+
+	// Syntax tree, simplified and with its slots, made once for all runs
+	synchronized Parser parse() throws InterpreterException {
+		if (parser == null) {
+			Parser p = new Parser(tokens);
+			new Optimizer(p);
+			new Resolver(p);
+			parser = p;
+		}
+		return parser;
+	}
+
+	// Bytecode for the VM, made once for all runs
+	synchronized Compiler compile() throws InterpreterException {
+		if (compiler == null)
+			compiler = new Compiler(parse());
+		return compiler;
+	}
+}
@@ -0,0 +1,209 @@
+package interpret;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import interpret.Edit.InterpreterException;
+
+// Numbers the variables of the syntax tree, once, before anything runs. A
+// name assigned in a block that can not see it gets a new slot of that
+// block, functions see their own slots and the top level ones. Blocks only
+// exist here: when running, every function has one array of slots and the
+// top level has another. A pure function may not print, read input, use
+// top level names or call functions that are not pure, that is checked here
+// too.
+class Resolver {
+
+	private HashMap<String, Node.Function> functs;
+	private HashMap<String, Integer> globals; // top level slots
+	private ArrayList<HashMap<String, Integer>> scopes; // innermost last
+	private boolean inFunction;
+	private int nLocals; // slots given out in the current function
+	private boolean global; // the last slot is a top level one
+	private boolean pure; // in a pure function
+
+	public Resolver(Parser p) throws InterpreterException {
+		functs = p.functs;
+		scopes = new ArrayList<HashMap<String, Integer>>();
+		globals = new HashMap<String, Integer>();
+
+		// The top level names can be used from every function
+		scopes.add(globals);
+		for (Node n : p.main.stats)
+			declareTop(n);
+		int mainLocals = nLocals;
+
+		inFunction = true;
+		for (Node.Function f : p.functs.values())
+			function(f);
+
+		inFunction = false;
+		pure = false;
+		scopes.clear();
+		scopes.add(globals);
+		nLocals = mainLocals;
+		block(p.main);
+		p.mainLocals = nLocals;
+	}
+
+	private void declareTop(Node n) {
+		switch (n.kind) {
+		case Node.ASSIGN:
+			declare(((Node.Assign) n).name);
+			break;
+		case Node.INPUT:
+			declare(((Node.Input) n).name);
+			break;
+		case Node.FOR:
+			declare(((Node.For) n).name);
+			break;
+		}
+	}
+
+	private void function(Node.Function f) throws InterpreterException {
+		nLocals = 0;
+		pure = f.pure;
+		scopes.clear();
+		scopes.add(new HashMap<String, Integer>());
+		for (String p : f.params)
+			declare(p);
+
+		block(f.body);
+		f.nLocals = nLocals;
+	}
+
+	private void block(Node.Block b) throws InterpreterException {
+		for (Node n : b.stats)
+			statement(n);
+	}
+
+	// A block with its own names
+	private void scope(Node.Block b) throws InterpreterException {
+		scopes.add(new HashMap<String, Integer>());
+		block(b);
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private void statement(Node n) throws InterpreterException {
+		switch (n.kind) {
+		case Node.PRINT:
+			impure(pure, n);
+			for (Node e : ((Node.Print) n).exps)
+				expression(e);
+			break;
+		case Node.INPUT:
+			Node.Input in = (Node.Input) n;
+			impure(pure, n);
+			in.slot = slot(in.name);
+			in.global = global;
+			break;
+		case Node.IF:
+			Node.If i = (Node.If) n;
+			for (int k = 0; k < i.conds.length; k++) {
+				expression(i.conds[k]);
+				scope(i.blocks[k]);
+			}
+			if (i.elseBlock != null)
+				scope(i.elseBlock);
+			break;
+		case Node.FOR:
+			Node.For f = (Node.For) n;
+			expression(f.init);
+			f.slot = slot(f.name);
+			f.global = global;
+			impure(global && pure, n);
+
+			scopes.add(new HashMap<String, Integer>());
+			expression(f.cond);
+			block(f.body);
+			expression(f.step); // the control variable is seen, same slot
+			scopes.remove(scopes.size() - 1);
+			break;
+		case Node.WHILE:
+			Node.While w = (Node.While) n;
+			scopes.add(new HashMap<String, Integer>());
+			expression(w.cond);
+			block(w.body);
+			scopes.remove(scopes.size() - 1);
+			break;
+		case Node.RETURN:
+			Node.Return r = (Node.Return) n;
+			if (r.exp != null)
+				expression(r.exp);
+			break;
+		case Node.ASSIGN:
+			Node.Assign a = (Node.Assign) n;
+			expression(a.exp);
+			a.slot = slot(a.name);
+			a.global = global;
+			impure(global && pure, n);
+			break;
+		case Node.CALL:
+			expression(n);
+			break;
+		}
+	}
+
+	private void expression(Node n) throws InterpreterException {
+		switch (n.kind) {
+		case Node.VAR:
+			Node.Var v = (Node.Var) n;
+			v.slot = slot(v.name); // never set, reading it says so
+			v.global = global;
+			impure(global && pure, n);
+			break;
+		case Node.UNARY:
+			expression(((Node.Unary) n).exp);
+			break;
+		case Node.BINARY:
+			expression(((Node.Binary) n).left);
+			expression(((Node.Binary) n).right);
+			break;
+		case Node.CALL:
+			Node.Call c = (Node.Call) n;
+			c.target = functs.get(c.key); // calls do not look it up
+			impure(pure && c.target != null && !c.target.pure, n);
+			for (Node a : c.args)
+				expression(a);
+			break;
+		}
+	}
+
+	private static void impure(boolean b, Node n) throws InterpreterException {
+		if (b)
+			throw Ops.error(Edit.IMPURE, n.line);
+	}
+
+	// Slot of a name, global tells if it is a top level one
+	private int slot(String name) {
+		global = false;
+		Integer s = find(name);
+		if (s != null)
+			return s;
+		if (inFunction && globals.containsKey(name)) {
+			global = true;
+			return globals.get(name);
+		}
+		return declare(name);
+	}
+
+	// Slot of a name the current block can see
+	private Integer find(String name) {
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			Integer s = scopes.get(i).get(name);
+			if (s != null)
+				return s;
+		}
+		return null;
+	}
+
+	// New slot in the innermost block
+	private int declare(String name) {
+		Integer s = scopes.get(scopes.size() - 1).get(name);
+		if (s != null)
+			return s;
+		s = nLocals++;
+		scopes.get(scopes.size() - 1).put(name, s);
+		return s;
+	}
+}
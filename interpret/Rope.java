@@ -0,0 +1,77 @@
+package interpret;
+
+import java.util.ArrayDeque;
+
+// A string made by +, kept as its two parts until its text is needed, so
+// adding to a long string costs the same as adding to a short one. The
+// text is put together once, when it is printed, compared or looked at,
+// and kept. String values are CharSequences: a String or a Rope. Like a
+// StringBuilder it has no equals, compare its text.
+final class Rope implements CharSequence {
+
+	static final int MIN = 64; // shorter results are plain Strings
+
+	private CharSequence left, right; // null once the text is made
+	private final int length;
+	private String text;
+
+	private Rope(CharSequence l, CharSequence r, int n) {
+		left = l;
+		right = r;
+		length = n;
+	}
+
+	// The string l + r
+	static CharSequence concat(CharSequence l, CharSequence r) {
+		if (l.length() == 0)
+			return r;
+		if (r.length() == 0)
+			return l;
+		int n = l.length() + r.length();
+		if (n < 0) // past Integer.MAX_VALUE, before it looks short
+			throw new OutOfMemoryError("String too long");
+		if (n < MIN)
+			return l.toString().concat(r.toString());
+		return new Rope(l, r, n);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int i) {
+		return toString().charAt(i);
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+
+	// Parts are taken left to right with a stack of our own, a string
+	// built by a long loop is as deep as the loop was long
+	public String toString() {
+		if (text != null)
+			return text;
+
+		char[] buf = new char[length];
+		int at = 0;
+		ArrayDeque<CharSequence> parts = new ArrayDeque<CharSequence>();
+		parts.push(this);
+		while (!parts.isEmpty()) {
+			CharSequence s = parts.pop();
+			if (s instanceof Rope && ((Rope) s).text == null) {
+				parts.push(((Rope) s).right);
+				parts.push(((Rope) s).left);
+				continue;
+			}
+			String t = s.toString();
+			t.getChars(0, t.length(), buf, at);
+			at += t.length();
+		}
+
+		text = new String(buf);
+		left = null; // let go of the parts
+		right = null;
+		return text;
+	}
+}
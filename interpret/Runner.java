@@ -0,0 +1,164 @@
+package interpret;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import interpret.Edit.InterpreterException;
+
+// Runs many programs at the same time, each in its own Edit. On Java 21
+// and later every run gets a virtual thread, so a run waiting for input
+// holds no platform thread, and at most maxRunning runs go at once. Before
+// that the runs share a pool of maxRunning platform threads. A run taking
+// longer than the timeout is interrupted, which the engines check at loops
+// and calls. Reading from an Input that blocks is not interrupted.
+class Runner {
+
+	// How a run ended
+	static final int DONE = 0;
+	static final int FAILED = 1; // an error, see Result.error
+	static final int TIMEOUT = 2;
+
+	static class Result {
+		final int status;
+		final String output; // what it printed, null when given an Output
+		final String error; // message of the error, null when DONE
+
+		Result(int s, String o, String e) {
+			status = s;
+			output = o;
+			error = e;
+		}
+	}
+
+	private ExecutorService threads;
+	private Semaphore running; // null when the pool size is the cap
+	private ScheduledExecutorService timer;
+	private long timeout; // in ms, 0 for none
+
+	public Runner(int maxRunning, long timeoutMillis) {
+		timeout = timeoutMillis;
+		threads = virtualThreads();
+		if (threads != null)
+			running = new Semaphore(maxRunning);
+		else
+			threads = Executors.newFixedThreadPool(maxRunning);
+
+		if (timeout > 0)
+			timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "edit-timeouts");
+				t.setDaemon(true);
+				return t;
+			});
+	}
+
+	// Run with these input lines, the Result has what it printed
+	Future<Result> submit(Program p, int engine, List<String> lines) {
+		return submit(p, engine, Input.of(lines));
+	}
+
+	Future<Result> submit(Program p, int engine, Input in) {
+		return threads.submit(new Run(p, engine, in, null));
+	}
+
+	// Run printing to out
+	Future<Result> submit(Program p, int engine, Input in, Output out) {
+		return threads.submit(new Run(p, engine, in, out));
+	}
+
+	// Takes no more runs, the ones submitted still run
+	void shutdown() {
+		threads.shutdown();
+		if (timer != null)
+			timer.shutdown();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() when there is one
+	private static ExecutorService virtualThreads() {
+		try {
+			Method m = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException exc) {
+			return null; // before Java 21
+		}
+	}
+
+	private class Run implements Callable<Result> {
+		private Program program;
+		private int engine;
+		private Input in;
+		private Output out;
+
+		private Thread thread;
+		private boolean finished; // both guarded by this
+		private boolean timedOut;
+
+		Run(Program p, int e, Input i, Output o) {
+			program = p;
+			engine = e;
+			in = i;
+			out = o;
+		}
+
+		public Result call() throws InterruptedException {
+			if (running != null)
+				running.acquire();
+			try {
+				return execute();
+			} finally {
+				if (running != null)
+					running.release();
+			}
+		}
+
+		private Result execute() {
+			Output.Memory text = out == null ? new Output.Memory() : null;
+			Edit e = new Edit(program);
+			e.setInput(in);
+			e.setOutput(out == null ? text : out);
+
+			thread = Thread.currentThread();
+			ScheduledFuture<?> stop = null;
+			if (timer != null)
+				stop = timer.schedule(this::timeUp, timeout,
+						TimeUnit.MILLISECONDS);
+
+			int status = DONE;
+			String error = null;
+			try {
+				e.run(engine);
+			} catch (InterpreterException exc) {
+				error = exc.toString();
+			} catch (RuntimeException exc) {
+				error = Edit.unknown(exc).toString();
+			} finally {
+				if (stop != null)
+					stop.cancel(false);
+				synchronized (this) {
+					finished = true;
+					if (error != null)
+						status = timedOut ? TIMEOUT : FAILED;
+				}
+				Thread.interrupted(); // a pool thread is used again
+			}
+			return new Result(status, text == null ? null : text.toString(),
+					error);
+		}
+
+		// The timeout, from the timer thread
+		private synchronized void timeUp() {
+			if (!finished) {
+				timedOut = true;
+				thread.interrupt();
+			}
+		}
+	}
+}
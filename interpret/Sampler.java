@@ -0,0 +1,67 @@
+package interpret;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Samples the Edit calls of a run of the char interpreter, see
+// Edit.setSampling. A timer thread looks at the run's call stack every
+// interval, the run itself does nothing more than it did. Each stack is
+// counted as "main:line;f:line;g:line", a function and the line it is at,
+// outermost first: the collapsed stack format flame graph tools read.
+class Sampler {
+
+	static final long INTERVAL = 1000; // between samples in us, default
+
+	private Edit edit;
+	private ScheduledExecutorService timer;
+	private TreeMap<String, Long> stacks = new TreeMap<String, Long>();
+
+	Sampler(Edit e, long micros) {
+		edit = e;
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "edit-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleAtFixedRate(this::sample, micros, micros,
+				TimeUnit.MICROSECONDS);
+	}
+
+	private void sample() {
+		String s = edit.stack();
+		if (s == null)
+			return; // not started
+		synchronized (this) {
+			stacks.merge(s, 1L, Long::sum);
+		}
+	}
+
+	// No more samples, once the one being taken is in
+	void stop() {
+		timer.shutdown();
+		try {
+			timer.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// One line per stack: the stack, a space and how often it was seen
+	synchronized void write(Writer w) throws IOException {
+		for (Map.Entry<String, Long> e : stacks.entrySet())
+			w.write(e.getKey() + " " + e.getValue() + "\n");
+		w.flush();
+	}
+
+	synchronized long samples() {
+		long n = 0;
+		for (long c : stacks.values())
+			n += c;
+		return n;
+	}
+}
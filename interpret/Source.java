@@ -0,0 +1,65 @@
+package interpret;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+import interpret.Edit.InterpreterException;
+
+// Reads a program file of any size. The file is memory mapped and decoded
+// from UTF-8 in one pass straight into the char array the Lexer reads, so
+// there is no fixed size buffer and no copy. Lines may end in \n or \r\n,
+// the Lexer skips the \r.
+class Source {
+
+	private Source() {
+	}
+
+	// The text of the file, chars position() to limit() of array()
+	static CharBuffer read(String name) throws InterpreterException {
+		return decode(map(name), name);
+	}
+
+	// The bytes of the file
+	static ByteBuffer map(String name) throws InterpreterException {
+		try (RandomAccessFile file = new RandomAccessFile(name, "r");
+				FileChannel ch = file.getChannel()) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} catch (FileNotFoundException exc) {
+			throw error(Edit.FILENOTFOUND, name);
+		} catch (IOException exc) {
+			throw error(Edit.FILEIOERROR, name);
+		}
+	}
+
+	// The text of bytes from map()
+	static CharBuffer decode(ByteBuffer bytes, String name)
+			throws InterpreterException {
+		CharBuffer text;
+		try {
+			text = StandardCharsets.UTF_8.newDecoder().decode(bytes.duplicate());
+		} catch (CharacterCodingException exc) { // not UTF-8
+			throw error(Edit.FILEIOERROR, name);
+		}
+
+		// A byte order mark is not part of the program
+		if (text.hasRemaining() && text.get(0) == '\uFEFF')
+			text.position(1);
+
+		// If file ends with an EOF mark, back up
+		if (text.hasRemaining() && text.get(text.limit() - 1) == (char) 26)
+			text.limit(text.limit() - 1);
+
+		return text;
+	}
+
+	private static InterpreterException error(int error, String name) {
+		return new InterpreterException(error,
+				Edit.errStr[error] + ": " + name);
+	}
+}
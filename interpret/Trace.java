@@ -0,0 +1,30 @@
+package interpret;
+
+// Listens to the char interpreter as it runs, see Edit.setTrace. Edit only
+// works out the arguments when a Trace is set, so running without one
+// costs a null check per event and allocates nothing. depth is the number
+// of open commands (blocks and calls).
+interface Trace {
+
+	// An item was read
+	void token(String item, int type, int line, int depth);
+
+	// A statement starts: a COMMAND code, 0 for an assignment or -1 for a
+	// call whose value is not used
+	void statement(int command, int line, int depth);
+
+	void call(String name, int line, int depth);
+
+	// A call is done, value is null when it returned nothing
+	void ret(String name, Object value, int depth);
+
+	// A block or call gets its own variables
+	void push(int depth);
+
+	void pop(int depth);
+
+	void write(String name, Object value, int depth);
+
+	// Anything else worth saying
+	void message(String s, int depth);
+}
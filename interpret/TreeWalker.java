@@ -0,0 +1,345 @@
+package interpret;
+
+import java.io.IOException;
+import java.util.List;
+
+import interpret.Edit.InterpreterException;
+
+// Runs the syntax tree built by the Parser. Variables are slots given by
+// the Resolver: a call gets one array of them, sized for the function, and
+// blocks cost nothing. Values are kept as in Value, eval gives the kind
+// and leaves numbers unboxed in num.
+class TreeWalker {
+
+	private Node.Block main;
+	private int mainLocals;
+
+	// Slots of the running function and of the top level
+	private Object[] refs;
+	private double[] nums;
+	private Object[] gRefs;
+	private double[] gNums;
+	private int depth; // functions being run
+	private int maxDepth;
+	private Node.Call tail; // call of a return f(...), run by call()
+	private Object retVal; // value of the last return
+	private double retNum;
+	private double num; // number of the value eval gave
+	private Memo.Table memos; // results of the pure functions
+	long statements, calls, inputs; // run so far, for Metrics
+
+	private Input in;
+	private Output out;
+
+	public TreeWalker(Parser p, int maxD, Memo.Table m, Input i, Output o) {
+		maxDepth = maxD;
+		memos = m;
+		in = i;
+		out = o;
+		main = p.main;
+		mainLocals = p.mainLocals;
+	}
+
+	public void run() throws InterpreterException {
+		gRefs = refs = new Object[mainLocals];
+		gNums = nums = new double[mainLocals];
+		depth = 0;
+
+		execBlock(main);
+	}
+
+	// Run the statements of a block, true when a return was reached
+	private boolean execBlock(Node.Block b) throws InterpreterException {
+		for (Node n : b.stats) {
+			if (exec(n))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean exec(Node n) throws InterpreterException {
+		statements++;
+		switch (n.kind) {
+		case Node.PRINT:
+			print((Node.Print) n);
+			return false;
+		case Node.INPUT:
+			input((Node.Input) n);
+			return false;
+		case Node.IF:
+			Node.If i = (Node.If) n;
+			for (int c = 0; c < i.conds.length; c++) {
+				if (isTrue(i.conds[c]))
+					return execBlock(i.blocks[c]);
+			}
+			if (i.elseBlock != null)
+				return execBlock(i.elseBlock);
+			return false;
+		case Node.FOR:
+			Node.For f = (Node.For) n;
+			set(f.slot, f.global, eval(f.init));
+
+			Events.Loop ev = Events.loop();
+			long runs = 0;
+			while (isTrue(f.cond)) {
+				Ops.poll(f.line);
+				runs++;
+				if (execBlock(f.body))
+					return true;
+				set(f.slot, f.global, eval(f.step));
+			}
+			if (ev != null)
+				ev.done("for", f.line, runs);
+			return false;
+		case Node.WHILE:
+			Node.While w = (Node.While) n;
+			ev = Events.loop();
+			runs = 0;
+			while (isTrue(w.cond)) {
+				Ops.poll(w.line);
+				runs++;
+				if (execBlock(w.body))
+					return true;
+			}
+			if (ev != null)
+				ev.done("while", w.line, runs);
+			return false;
+		case Node.RETURN:
+			Node.Return r = (Node.Return) n;
+			if (depth == 0)
+				throw Ops.error(Edit.SYNTAX, r.line); // not in a function
+			if (r.exp != null && r.exp.kind == Node.CALL
+					&& !pure((Node.Call) r.exp)) {
+				tail = (Node.Call) r.exp; // in place of this call
+				return true;
+			}
+			retVal = r.exp == null ? null : eval(r.exp);
+			retNum = num;
+			return true;
+		case Node.ASSIGN:
+			Node.Assign a = (Node.Assign) n;
+			set(a.slot, a.global, eval(a.exp));
+			return false;
+		case Node.CALL:
+			call((Node.Call) n);
+			return false;
+		}
+		throw Ops.error(Edit.UNEXPITEM, n.line);
+	}
+
+	private void print(Node.Print p) throws InterpreterException {
+		for (int i = 0; i < p.exps.length; i++) {
+			out.print(eval(p.exps[i]), num);
+
+			if (p.seps[i] == ',') // ',' means one more item
+				out.print(' ');
+			else if (p.seps[i] == ';')
+				out.print('\t');
+		}
+
+		out.println();
+	}
+
+	private void input(Node.Input i) throws InterpreterException {
+		out.print(i.prompt == null ? "? " : i.prompt);
+		out.flush();
+
+		String str;
+		Events.Input ev = Events.input();
+		try {
+			str = in.readLine();
+		} catch (IOException exc) {
+			str = null;
+		}
+		if (ev != null)
+			ev.done(i.line);
+		if (str == null)
+			throw Ops.error(Edit.INPUTIOERROR, i.line);
+		inputs++;
+
+		Object o = Ops.fromInput(str);
+		num = Value.num(o);
+		set(i.slot, i.global, Value.ref(o));
+	}
+
+	private Object eval(Node n) throws InterpreterException {
+		switch (n.kind) {
+		case Node.CONST:
+			Object o = ((Node.Const) n).value;
+			num = Value.num(o);
+			return Value.ref(o);
+		case Node.VAR:
+			Node.Var v = (Node.Var) n;
+			Object[] rs = v.global ? gRefs : refs;
+			if (rs[v.slot] == null)
+				throw Ops.error(Edit.NOTAVAR, v.line);
+			num = (v.global ? gNums : nums)[v.slot];
+			return rs[v.slot];
+		case Node.UNARY:
+			Node.Unary u = (Node.Unary) n;
+			o = eval(u.exp);
+			if (o == Value.NUM && u.op == '-') {
+				num = -num;
+				return o;
+			}
+			if (o == Value.INT && u.op == '-'
+					&& Value.whole(num) != Long.MIN_VALUE) {
+				num = Value.bits(-Value.whole(num));
+				return o;
+			}
+			return unbox(Ops.unary(u.op, Value.box(o, num), u.line));
+		case Node.BINARY:
+			Node.Binary b = (Node.Binary) n;
+			Object l = eval(b.left);
+			double ln = num;
+			Object r = eval(b.right);
+			if (l == Value.NUM && r == Value.NUM)
+				return arith(b.op, ln, num, b.line);
+			if (Value.isNum(l) && Value.isNum(r)) // a whole number
+				return number(b.op, l, ln, r, num, b.line);
+			return unbox(Ops.binary(b.op, Value.box(l, ln), Value.box(r, num),
+					b.line));
+		case Node.CALL:
+			return call((Node.Call) n);
+		}
+		throw Ops.error(Edit.INVALIDEXP, n.line);
+	}
+
+	// Two numbers, no boxing
+	private Object arith(int op, double l, double r, int line)
+			throws InterpreterException {
+		switch (op) {
+		case '+':
+			num = l + r;
+			return Value.NUM;
+		case '-':
+			num = l - r;
+			return Value.NUM;
+		case '*':
+			num = l * r;
+			return Value.NUM;
+		case '/':
+		case '%':
+			num = Ops.arith(op, l, r, line);
+			return Value.NUM;
+		case '^':
+			num = Ops.power(l, r);
+			return Value.NUM;
+		}
+		if (op >= Edit.BOOL_OP)
+			throw Ops.error(Edit.NOTABOOL, line);
+		return Value.bool(Ops.compare(op, l, r));
+	}
+
+	// Two numbers, one or both whole
+	private Object number(int op, Object l, double ln, Object r, double rn,
+			int line) throws InterpreterException {
+		if (l == Value.INT && r == Value.INT && Ops.isArith(op)) {
+			try {
+				num = Value.bits(Ops.whole(op, Value.whole(ln),
+						Value.whole(rn), line));
+				return Value.INT;
+			} catch (ArithmeticException exc) {
+				// in doubles
+			}
+		}
+		if (op < Edit.BOOL_OP && !Ops.isArith(op))
+			return Value.bool(Ops.compare(op, l, ln, r, rn));
+		return arith(op, Value.dbl(l, ln), Value.dbl(r, rn), line);
+	}
+
+	private Object unbox(Object o) {
+		num = Value.num(o);
+		return Value.ref(o);
+	}
+
+	private boolean isTrue(Node cond) throws InterpreterException {
+		Object o = eval(cond);
+		if (!(o instanceof Boolean))
+			throw Ops.error(Edit.NOTABOOL, cond.line);
+		return (boolean) o;
+	}
+
+	// Leaves the number of the result in num. A return f(...) ends the
+	// running function and f runs in its place, in the same Java frame, so
+	// tail recursion does not grow the Java stack. A pure f is called as
+	// usual, so its result is kept.
+	private Object call(Node.Call c) throws InterpreterException {
+		if (depth == maxDepth)
+			throw Ops.error(Edit.TOODEEP, c.line);
+		Object[] callerRefs = refs;
+		double[] callerNums = nums;
+		depth++;
+
+		Object result = null;
+		while (true) {
+			Node.Function f = c.target;
+			calls++;
+
+			if (f == null)
+				throw Ops.error(Edit.UNKFUNCTION, c.line);
+			Ops.poll(c.line);
+			if (c.args.length > f.params.length)
+				throw Ops.error(Edit.TOOMANYPARAMS, c.line);
+
+			// Arguments are worked out where the call is
+			Object[] calleeRefs = new Object[f.nLocals];
+			double[] calleeNums = new double[f.nLocals];
+			for (int i = 0; i < c.args.length; i++) {
+				calleeRefs[i] = eval(c.args[i]);
+				calleeNums[i] = num;
+			}
+
+			Memo memo = null;
+			List<Object> key = null;
+			if (f.pure) {
+				memo = memos.of(f, f.name);
+				key = Memo.key(calleeRefs, calleeNums, 0, c.args.length);
+				Object o = memo.get(key);
+				if (o != null) {
+					result = unbox(Memo.value(o));
+					break;
+				}
+			}
+
+			refs = calleeRefs;
+			nums = calleeNums;
+			Events.Call ev = Events.call(c.line);
+			boolean returned = execBlock(f.body);
+			if (ev != null)
+				ev.done(f.name);
+			if (returned && tail != null) {
+				c = tail;
+				tail = null;
+				continue;
+			}
+			if (returned) {
+				result = retVal;
+				num = retNum;
+			}
+			if (memo != null)
+				memo.put(key, Value.box(result, num));
+			break;
+		}
+
+		depth--;
+		refs = callerRefs;
+		nums = callerNums;
+		retVal = null;
+		return result;
+	}
+
+	private static boolean pure(Node.Call c) {
+		return c.target != null && c.target.pure;
+	}
+
+	private void set(int slot, boolean global, Object o) {
+		if (global) {
+			gRefs[slot] = o;
+			gNums[slot] = num;
+		} else {
+			refs[slot] = o;
+			nums[slot] = num;
+		}
+	}
+}
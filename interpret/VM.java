@@ -0,0 +1,546 @@
+package interpret;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import interpret.Edit.InterpreterException;
+
+// Runs the bytecode made by the Compiler. One stack holds every frame:
+// a frame's locals start at its base and its operand stack sits on top of
+// them, calls push a frame instead of calling Java methods. The stack is
+// two arrays, see Value: refs has the kinds and nums the numbers, so
+// arithmetic on numbers allocates nothing.
+class VM {
+
+	private Chunk main;
+	private Chunk[] functs;
+	private Object[] consts;
+	private Object[] constRefs; // consts split like the stack
+	private double[] constNums;
+
+	private Object[] refs;
+	private double[] nums;
+	private int sp; // first free stack slot
+
+	// Frames, fp is the running one
+	private Chunk[] fChunk;
+	private int[] fBase;
+	private int[] fPc;
+	private Memo[] fMemo; // memo of a pure call, its result goes in at RET
+	private Events.Call[] fCall; // events of recorded calls, null till one
+	long calls, inputs; // run so far, for Metrics
+	private List<?>[] fKey; // the arguments of that call
+	private int fp;
+
+	private double retNum; // number of the value invoke returned
+
+	private Input in;
+	private Output out;
+	private Jit jit; // null when the JIT is off
+	int maxDepth; // calls running at once
+	Memo.Table memos; // results of the pure functions
+
+	public VM(Compiler comp, int jitMode, int depth, Memo.Table m, Input inp,
+			Output o) {
+		maxDepth = depth;
+		memos = m;
+		in = inp;
+		out = o;
+		main = comp.main;
+		functs = comp.functs;
+		consts = comp.consts;
+
+		constRefs = new Object[consts.length];
+		constNums = new double[consts.length];
+		for (int i = 0; i < consts.length; i++) {
+			constRefs[i] = Value.ref(consts[i]);
+			constNums[i] = Value.num(consts[i]);
+		}
+
+		if (jitMode != Jit.OFF)
+			jit = new Jit(this, comp, jitMode);
+		if (jitMode == Jit.EAGER)
+			jit.compileAll();
+	}
+
+	public void run() throws InterpreterException {
+		refs = new Object[256];
+		nums = new double[256];
+		fChunk = new Chunk[16];
+		fBase = new int[16];
+		fPc = new int[16];
+		fMemo = new Memo[16];
+		fKey = new List<?>[16];
+
+		fp = 0;
+		fChunk[0] = main;
+		fBase[0] = 0;
+		fPc[0] = 0;
+		sp = main.nLocals;
+		ensure(sp + main.maxStack);
+
+		execute(0);
+	}
+
+	// Run one function for compiled code, the number of the result is
+	// left in retNum
+	Object invoke(Chunk f, Object[] argRefs, double[] argNums, int argc)
+			throws InterpreterException {
+		int base = sp;
+		ensure(base + f.nLocals + f.maxStack);
+		System.arraycopy(argRefs, 0, refs, base, argc);
+		System.arraycopy(argNums, 0, nums, base, argc);
+		Arrays.fill(refs, base + argc, base + f.nLocals, null);
+
+		pushFrame(f, base);
+		sp = base + f.nLocals;
+		return execute(fp);
+	}
+
+	// The dispatch loop, runs until HALT or until frame stop returns
+	private Object execute(int stop) throws InterpreterException {
+		Chunk c = fChunk[fp];
+		int[] code = c.code;
+		int pc = fPc[fp];
+		int base = fBase[fp];
+		Object[] rs = refs;
+		double[] ns = nums;
+		int sp = this.sp;
+		int at = 0; // start of the running instruction
+		int i;
+		Object l;
+
+		while (true) {
+			at = pc;
+			switch (code[pc++]) {
+			case Chunk.CONST:
+				i = code[pc++];
+				rs[sp] = constRefs[i];
+				ns[sp++] = constNums[i];
+				break;
+			case Chunk.LOAD:
+				i = base + code[pc++];
+				if (rs[i] == null)
+					throw error(Edit.NOTAVAR, c, at);
+				rs[sp] = rs[i];
+				ns[sp++] = ns[i];
+				break;
+			case Chunk.STORE:
+				i = base + code[pc++];
+				rs[i] = rs[--sp];
+				ns[i] = ns[sp];
+				break;
+			case Chunk.GLOAD:
+				i = code[pc++]; // main's frame starts at 0
+				if (rs[i] == null)
+					throw error(Edit.NOTAVAR, c, at);
+				rs[sp] = rs[i];
+				ns[sp++] = ns[i];
+				break;
+			case Chunk.GSTORE:
+				i = code[pc++];
+				rs[i] = rs[--sp];
+				ns[i] = ns[sp];
+				break;
+			case Chunk.POP:
+				rs[--sp] = null;
+				break;
+
+			case Chunk.ADD:
+				l = rs[--sp];
+				if (l == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] += ns[sp];
+				else if (l == Value.INT && rs[sp - 1] == Value.INT) {
+					try {
+						ns[sp - 1] = Value.bits(Math.addExact(
+								Value.whole(ns[sp - 1]), Value.whole(ns[sp])));
+					} catch (ArithmeticException exc) {
+						binary('+', sp - 1, c, at); // too big to stay whole
+					}
+				} else
+					binary('+', sp - 1, c, at);
+				break;
+			case Chunk.SUB:
+				l = rs[--sp];
+				if (l == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] -= ns[sp];
+				else if (l == Value.INT && rs[sp - 1] == Value.INT) {
+					try {
+						ns[sp - 1] = Value.bits(Math.subtractExact(
+								Value.whole(ns[sp - 1]), Value.whole(ns[sp])));
+					} catch (ArithmeticException exc) {
+						binary('-', sp - 1, c, at); // too big to stay whole
+					}
+				} else
+					binary('-', sp - 1, c, at);
+				break;
+			case Chunk.MUL:
+				l = rs[--sp];
+				if (l == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] *= ns[sp];
+				else if (l == Value.INT && rs[sp - 1] == Value.INT) {
+					try {
+						ns[sp - 1] = Value.bits(Math.multiplyExact(
+								Value.whole(ns[sp - 1]), Value.whole(ns[sp])));
+					} catch (ArithmeticException exc) {
+						binary('*', sp - 1, c, at); // too big to stay whole
+					}
+				} else
+					binary('*', sp - 1, c, at);
+				break;
+			case Chunk.DIV:
+				if (rs[--sp] == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] = Ops.arith('/', ns[sp - 1], ns[sp], c.lines[at]);
+				else
+					binary('/', sp - 1, c, at);
+				break;
+			case Chunk.MOD:
+				if (rs[--sp] == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] = Ops.arith('%', ns[sp - 1], ns[sp], c.lines[at]);
+				else
+					binary('%', sp - 1, c, at);
+				break;
+			case Chunk.POW:
+				if (rs[--sp] == Value.NUM && rs[sp - 1] == Value.NUM)
+					ns[sp - 1] = Ops.power(ns[sp - 1], ns[sp]);
+				else
+					binary('^', sp - 1, c, at);
+				break;
+			case Chunk.NEG:
+				if (rs[sp - 1] == Value.NUM)
+					ns[sp - 1] = -ns[sp - 1];
+				else if (rs[sp - 1] == Value.INT
+						&& Value.whole(ns[sp - 1]) != Long.MIN_VALUE)
+					ns[sp - 1] = Value.bits(-Value.whole(ns[sp - 1]));
+				else
+					unary('-', sp - 1, c, at);
+				break;
+			case Chunk.NOT:
+				l = rs[sp - 1];
+				if (l instanceof Boolean)
+					rs[sp - 1] = Value.bool(l == Boolean.FALSE);
+				else
+					unary(Edit.BOOL_OP + Edit.NOT, sp - 1, c, at);
+				break;
+			case Chunk.REL:
+				if (Value.isNum(rs[--sp]) && Value.isNum(rs[sp - 1]))
+					rs[sp - 1] = Value.bool(Ops.compare(code[pc++], rs[sp - 1],
+							ns[sp - 1], rs[sp], ns[sp]));
+				else
+					binary(code[pc++], sp - 1, c, at);
+				break;
+			case Chunk.LOGIC:
+				l = rs[--sp];
+				if (l instanceof Boolean && rs[sp - 1] instanceof Boolean)
+					rs[sp - 1] = Value.bool(Ops.logic(code[pc++],
+							(boolean) rs[sp - 1], (boolean) l));
+				else
+					binary(code[pc++], sp - 1, c, at);
+				break;
+
+			case Chunk.JUMP:
+				pc += code[pc] + 1;
+				break;
+			case Chunk.LOOP:
+				if (jit != null)
+					c.loops++;
+				if (Thread.currentThread().isInterrupted()) // see Runner
+					throw error(Edit.STOPPED, c, at);
+				pc += code[pc] + 1;
+				break;
+			case Chunk.JFALSE:
+				l = rs[--sp];
+				if (l == Boolean.TRUE)
+					pc++;
+				else if (l == Boolean.FALSE)
+					pc += code[pc] + 1;
+				else
+					throw error(Edit.NOTABOOL, c, at);
+				break;
+
+			case Chunk.CALL:
+			case Chunk.TAILCALL:
+				Chunk callee = functs[code[pc]];
+				int argc = code[pc + 1];
+				calls++;
+				fPc[fp] = pc + 2;
+				if (Thread.currentThread().isInterrupted())
+					throw error(Edit.STOPPED, c, at);
+
+				// Never a TAILCALL, the Compiler makes it a CALL
+				Memo memo = null;
+				List<?> key = null;
+				if (callee.pure) {
+					memo = memos.of(callee, callee.name);
+					key = Memo.key(rs, ns, sp - argc, argc);
+					l = memo.get(key);
+					if (l != null) {
+						sp -= argc;
+						Arrays.fill(rs, sp, sp + argc, null);
+						l = Memo.value(l);
+						rs[sp] = Value.ref(l);
+						ns[sp++] = Value.num(l);
+						pc += 2;
+						break;
+					}
+				}
+
+				if (jit != null && jit.nested < Jit.MAX_NESTED
+						&& jit.hot(callee)) {
+					sp -= argc;
+					jit.args(rs, ns, sp, callee, argc);
+					this.sp = sp;
+					Events.Call ev = Events.call(c.lines[at]);
+					jit.nested++;
+					l = callee.jit.run(jit);
+					jit.nested--;
+					if (ev != null)
+						ev.done(callee.name);
+					if (memo != null)
+						memo.put(key, Value.box(l, jit.num));
+					rs = refs; // may have grown
+					ns = nums;
+					rs[sp] = l;
+					ns[sp++] = jit.num;
+					pc += 2;
+					break; // a TAILCALL goes on to its RET
+				}
+
+				if (code[at] == Chunk.TAILCALL) {
+					// The arguments replace this frame, the callee returns
+					// straight to our caller
+					int top = Math.max(sp, base + callee.nLocals);
+					System.arraycopy(rs, sp - argc, rs, base, argc);
+					System.arraycopy(ns, sp - argc, ns, base, argc);
+					ensure(base + callee.nLocals + callee.maxStack);
+					rs = refs;
+					ns = nums;
+					Arrays.fill(rs, base + argc, top, null);
+					sp = base + callee.nLocals;
+
+					if (fCall != null && fCall[fp] != null) {
+						fCall[fp].done(c.name);
+						fCall[fp] = Events.call(c.lines[at]);
+					}
+					fChunk[fp] = callee;
+					c = callee;
+					code = c.code;
+					pc = 0;
+					break;
+				}
+				if (fp == maxDepth)
+					throw error(Edit.TOODEEP, c, at);
+
+				// Arguments are already in the first slots
+				base = sp - argc;
+				sp = base + callee.nLocals;
+				ensure(sp + callee.maxStack);
+				rs = refs;
+				ns = nums;
+				Arrays.fill(rs, base + argc, sp, null);
+
+				pushFrame(callee, base);
+				fMemo[fp] = memo;
+				fKey[fp] = key;
+				Events.Call ev = Events.call(c.lines[at]);
+				if (ev != null) {
+					if (fCall == null)
+						fCall = new Events.Call[fChunk.length];
+					fCall[fp] = ev;
+				}
+				c = callee;
+				code = c.code;
+				pc = 0;
+				break;
+			case Chunk.RET:
+			case Chunk.RETNONE:
+				double n = 0.0;
+				l = null;
+				if (code[at] == Chunk.RET) {
+					l = rs[--sp];
+					n = ns[sp];
+				}
+				Arrays.fill(rs, base, sp, null); // let go of the values
+				sp = base;
+				if (fMemo[fp] != null) {
+					fMemo[fp].put(fKey[fp], Value.box(l, n));
+					fMemo[fp] = null;
+					fKey[fp] = null;
+				}
+				if (fCall != null && fCall[fp] != null) {
+					fCall[fp].done(c.name);
+					fCall[fp] = null;
+				}
+				if (fp-- == stop) {
+					this.sp = sp;
+					retNum = n;
+					return l;
+				}
+
+				c = fChunk[fp];
+				code = c.code;
+				pc = fPc[fp];
+				base = fBase[fp];
+				rs[sp] = l;
+				ns[sp++] = n;
+				break;
+
+			case Chunk.PRINT:
+				print(rs[--sp], ns[sp], code[pc++]);
+				rs[sp] = null;
+				break;
+			case Chunk.PRINTLN:
+				println();
+				break;
+			case Chunk.INPUT:
+				l = input(code[pc++], c.lines[at]);
+				rs[sp] = Value.ref(l);
+				ns[sp++] = Value.num(l);
+				break;
+			case Chunk.ERROR:
+				throw error(code[pc], c, at);
+			case Chunk.HALT:
+				this.sp = sp;
+				return null;
+			default:
+				throw error(Edit.UNKNOWN, c, at);
+			}
+		}
+	}
+
+	// Any operator on anything but two NUMs, the result goes in slot i
+	private void binary(int op, int i, Chunk c, int at)
+			throws InterpreterException {
+		Object l = refs[i];
+		Object r = refs[i + 1];
+		if (Value.isNum(l) && Value.isNum(r)) { // a whole number
+			int line = c.lines[at];
+			refs[i + 1] = null;
+			if (l == Value.INT && r == Value.INT) {
+				try {
+					nums[i] = Value.bits(Ops.whole(op, Value.whole(nums[i]),
+							Value.whole(nums[i + 1]), line));
+					return;
+				} catch (ArithmeticException exc) {
+					// in doubles
+				}
+			}
+			refs[i] = Value.NUM;
+			nums[i] = Ops.arith(op, Value.dbl(l, nums[i]),
+					Value.dbl(r, nums[i + 1]), line);
+			return;
+		}
+		if (l == null || r == null) // function that returned nothing
+			throw error(Edit.INVALIDEXP, c, at);
+
+		Object o = Ops.binary(op, Value.box(l, nums[i]),
+				Value.box(r, nums[i + 1]), c.lines[at]);
+		refs[i] = Value.ref(o);
+		nums[i] = Value.num(o);
+		refs[i + 1] = null;
+	}
+
+	private void unary(int op, int i, Chunk c, int at)
+			throws InterpreterException {
+		if (refs[i] == null)
+			throw error(Edit.INVALIDEXP, c, at);
+
+		Object o = Ops.unary(op, Value.box(refs[i], nums[i]), c.lines[at]);
+		refs[i] = Value.ref(o);
+		nums[i] = Value.num(o);
+	}
+
+	void print(Object ref, double num, int sep) {
+		out.print(ref, num);
+
+		if (sep == ',') // ',' means one more item
+			out.print(' ');
+		else if (sep == ';')
+			out.print('\t');
+	}
+
+	void println() {
+		out.println();
+	}
+
+	// Ask with consts[k] (or "? ") and read a line
+	Object input(int k, int line) throws InterpreterException {
+		out.print(k < 0 ? "? " : consts[k]);
+		out.flush();
+
+		String str = null;
+		Events.Input ev = Events.input();
+		try {
+			str = in.readLine();
+		} catch (IOException exc) {
+			// reported below
+		}
+		if (ev != null)
+			ev.done(line);
+		if (str == null)
+			throw Ops.error(Edit.INPUTIOERROR, line);
+		inputs++;
+		return Ops.fromInput(str);
+	}
+
+	// Top level variables, main's frame starts at 0
+	Object globalRef(int slot) {
+		return refs[slot];
+	}
+
+	double globalNum(int slot) {
+		return nums[slot];
+	}
+
+	void setGlobal(int slot, Object ref, double num) {
+		refs[slot] = ref;
+		nums[slot] = num;
+	}
+
+	double retNum() {
+		return retNum;
+	}
+
+	// Calls the VM is running
+	int frames() {
+		return fp;
+	}
+
+	// Which functions the JIT compiled
+	String jitReport() {
+		return jit == null ? "JIT: off" : jit.report();
+	}
+
+	private void pushFrame(Chunk f, int base) {
+		if (++fp == fChunk.length) {
+			fChunk = Arrays.copyOf(fChunk, fp * 2);
+			fBase = Arrays.copyOf(fBase, fp * 2);
+			fPc = Arrays.copyOf(fPc, fp * 2);
+			fMemo = Arrays.copyOf(fMemo, fp * 2);
+			fKey = Arrays.copyOf(fKey, fp * 2);
+			if (fCall != null)
+				fCall = Arrays.copyOf(fCall, fp * 2);
+		}
+		fChunk[fp] = f;
+		fBase[fp] = base;
+		fPc[fp] = 0; // the frame may have run another function before
+		fMemo[fp] = null;
+		if (fCall != null)
+			fCall[fp] = null;
+	}
+
+	// Make room on the stack
+	private void ensure(int size) {
+		if (size > refs.length) {
+			int n = Math.max(size, refs.length * 2);
+			refs = Arrays.copyOf(refs, n);
+			nums = Arrays.copyOf(nums, n);
+		}
+	}
+
+	private InterpreterException error(int error, Chunk c, int at) {
+		return new InterpreterException(error, Edit.errStr[error]
+				+ "\nLine number: " + c.lines[at] + "\nFunction: " + c.name);
+	}
+}
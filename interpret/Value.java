@@ -0,0 +1,71 @@
+package interpret;
+
+// How the compiled engines hold a value without boxing it: a reference plus
+// a double. The reference says the kind:
+//   NUM             a number, kept in the double
+//   INT             a whole number, a long whose bits are kept in the
+//                   double (see bits and whole), so every long is exact.
+//                   Only Ops and the engines' arithmetic read them as
+//                   longs, everything else just moves them. Boxed it is a
+//                   Long.
+//   Boolean.TRUE    a boolean (Boolean.FALSE), no allocation
+//   a String        a string (or a Rope, a string made by +)
+//   null            no value: a variable never set, or a function that
+//                   returned nothing
+// Only the slow paths in Ops see boxed Doubles and Longs.
+final class Value {
+
+	static final Value NUM = new Value();
+	static final Value INT = new Value();
+
+	private Value() {
+	}
+
+	// The value as Ops and the char interpreter see it
+	static Object box(Object ref, double num) {
+		if (ref == NUM)
+			return num;
+		return ref == INT ? (Object) whole(num) : ref;
+	}
+
+	// The reference of a boxed value, its number goes in with num()
+	static Object ref(Object o) {
+		if (o instanceof Double)
+			return NUM;
+		return o instanceof Long ? INT : o;
+	}
+
+	static double num(Object o) {
+		if (o instanceof Double)
+			return (double) o;
+		return o instanceof Long ? bits((long) o) : 0.0;
+	}
+
+	// The double holding whole number l
+	static double bits(long l) {
+		return Double.longBitsToDouble(l);
+	}
+
+	// The whole number held in num
+	static long whole(double num) {
+		return Double.doubleToRawLongBits(num);
+	}
+
+	// The number of a NUM or INT as a double
+	static double dbl(Object ref, double num) {
+		return ref == INT ? (double) whole(num) : num;
+	}
+
+	// NUM or INT
+	static boolean isNum(Object ref) {
+		return ref == NUM || ref == INT;
+	}
+
+	static Object bool(boolean b) {
+		return b ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	public String toString() {
+		return this == INT ? "whole number" : "number";
+	}
+}